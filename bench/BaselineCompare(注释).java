@@ -0,0 +1,199 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+BaselineCompare 把一次基准测试的结果与提交在仓库中的基线比较，找出性能回退
+
+	运行基准测试：
+		这些基准测试测的是本仓库中的java.io类，所以要把它们编译后放在引导类路径的前面，
+		替换JDK自带的java.io(JDK 8：-Xbootclasspath/p:<编译后的io目录>)。
+		bench/pom.xml完成这些步骤(需要JDK 8和UTF-8的locale)，在bench目录下：
+			mvn -B package
+			mvn -B exec:exec -Djmh.args="PipeBench.roundTrip"
+		exec:exec相当于：
+			java -Xbootclasspath/p:target/io-classes -jar target/benchmarks.jar \
+				-jvmArgsPrepend -Xbootclasspath/p:target/io-classes -rf csv -rff target/current.csv
+		只跑一部分：在jmh.args中给出类名或正则，例如 PipeBench.roundTrip。
+
+	基线的格式：
+		基线就是JMH用-rf csv输出的结果文件，不做任何修改，放在bench/baseline/目录下，
+		文件名是<JDK版本>-<机器名>.csv(例如 1.8.0_392-ci-x86.csv)，只和同一台机器、同一个JDK的结果比较。
+		列：Benchmark, Mode, Threads, Samples, Score, Score Error (99.9%), Unit, Param: ...
+		SampleTime模式每个分位数单独一行，Benchmark列是 ...roundTrip:p0.99 这样的名字，按普通的行比较。
+		改动被接受、性能确实变化时，用新的结果文件覆盖基线，在提交说明里写明原因。
+
+	比较：
+		java -cp target/classes bench.BaselineCompare baseline/<文件>.csv target/current.csv [threshold]
+		按(Benchmark, Mode, 所有Param)匹配两边的行。Throughput模式的主结果得分越高越好，
+		其它模式和次要结果(Benchmark列带':'，例如-prof gc的 ...:gc.alloc.rate.norm)越低越好。
+		变差超过threshold(默认0.05，即5%)，并且差值超过两边误差之和时，算作回退。
+		有回退时退出码是1；只在一边出现的行列出来但不算回退。
+*/
+public class BaselineCompare {
+
+    // 一行结果
+    static final class Row {
+        final String key;
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Row(String key, String mode, double score, double error, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BaselineCompare baseline.csv current.csv [threshold]");
+            System.exit(2);
+        }
+        double threshold = (args.length == 3) ? Double.parseDouble(args[2]) : 0.05;
+        Map<String, Row> base = load(args[0]);
+        Map<String, Row> current = load(args[1]);
+
+        int regressions = 0;
+        for (Row c : current.values()) {
+            Row b = base.get(c.key);
+            if (b == null) {
+                System.out.println("NEW        " + c.key);
+                continue;
+            }
+            if (!b.unit.equals(c.unit)) {
+                System.out.println("UNIT       " + c.key + " (" + b.unit + " -> " + c.unit + ")");
+                continue;
+            }
+            // 正数表示变差
+            double change = higherIsBetter(c)
+                ? (b.score - c.score) / b.score
+                : (c.score - b.score) / b.score;
+            double noise = errorOf(b) + errorOf(c);
+            String status;
+            if (change > threshold && Math.abs(c.score - b.score) > noise) {
+                status = "REGRESSION";
+                regressions++;
+            } else if (change < -threshold && Math.abs(c.score - b.score) > noise) {
+                status = "IMPROVED  ";
+            } else {
+                status = "same      ";
+            }
+            System.out.printf("%s %s %.3f -> %.3f %s (%+.1f%%)%n",
+                              status, c.key, b.score, c.score, c.unit, -change * 100);
+        }
+        for (Row b : base.values()) {
+            if (!current.containsKey(b.key)) {
+                System.out.println("MISSING    " + b.key);
+            }
+        }
+        System.out.println(regressions + " regression(s)");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    // 只有Throughput模式的主结果越高越好。
+    // 名字中带':'的是次要结果(分位数、-prof gc的分配速率和B/op等)，
+    // 即使在Throughput模式下也是越低越好
+    private static boolean higherIsBetter(Row r) {
+        String benchmark = r.key.substring(0, r.key.indexOf(' '));
+        return r.mode.equals("thrpt") && benchmark.indexOf(':') < 0;
+    }
+
+    // SampleTime的分位数行没有误差(NaN)
+    private static double errorOf(Row r) {
+        return Double.isNaN(r.error) ? 0 : r.error;
+    }
+
+    // 读取JMH的csv结果，键是Benchmark、Mode和所有参数
+    static Map<String, Row> load(String file) throws IOException {
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        BufferedReader r = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line = r.readLine();
+            if (line == null) {
+                return rows;
+            }
+            List<String> header = split(line);
+            int benchmark = header.indexOf("Benchmark");
+            int mode = header.indexOf("Mode");
+            int score = header.indexOf("Score");
+            int error = header.indexOf("Score Error (99.9%)");
+            int unit = header.indexOf("Unit");
+            if (benchmark < 0 || mode < 0 || score < 0 || error < 0 || unit < 0) {
+                throw new IOException(file + ": not a JMH csv result file");
+            }
+            while ((line = r.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                List<String> f = split(line);
+                StringBuilder key = new StringBuilder();
+                key.append(f.get(benchmark)).append(' ').append(f.get(mode));
+                for (int i = 0; i < header.size(); i++) {
+                    String h = header.get(i);
+                    if (h.startsWith("Param: ") && i < f.size() && !f.get(i).isEmpty()) {
+                        key.append(' ').append(h.substring(7)).append('=').append(f.get(i));
+                    }
+                }
+                String k = key.toString();
+                rows.put(k, new Row(k, f.get(mode), parse(f.get(score)),
+                                    parse(f.get(error)), f.get(unit)));
+            }
+        } finally {
+            r.close();
+        }
+        return rows;
+    }
+
+    private static double parse(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // 切分一行csv，字段可以用双引号括起来，""表示一个双引号
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,136 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+BufferedStreamBench BufferedInputStream/BufferedOutputStream的基准测试
+	每次调用读完(或写完)payloadSize个字节，得分是每秒的调用次数：
+		readPerByte/readBulk     逐字节read()和read(byte[], int, int)
+		writePerByte/writeBulk   逐字节write(int)和write(byte[], int, int)
+		markReset                每读chunk个字节之前mark，读完后reset再读一遍
+	bufferSize是流的缓冲区大小，chunk是read/write(byte[])每次的字节数。
+	底层流是ByteArrayInputStream和丢弃数据的OutputStream，只测缓冲流本身。
+
+	运行方式见BaselineCompare。
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BufferedStreamBench {
+
+    @Param({"512", "8192", "65536"})
+    int bufferSize;
+
+    @Param({"64", "4096"})
+    int chunk;
+
+    @Param({"1048576"})
+    int payloadSize;
+
+    private byte[] payload;
+    private byte[] dst;
+    private ByteArrayInputStream source;
+    private final OutputStream sink = new NullOutputStream();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        dst = new byte[chunk];
+        source = new ByteArrayInputStream(payload);
+    }
+
+    // 每次调用都新建缓冲流，与实际用法相同；底层流只是reset()
+    private BufferedInputStream input() {
+        source.reset();
+        return new BufferedInputStream(source, bufferSize);
+    }
+
+    @Benchmark
+    public int readPerByte() throws IOException {
+        BufferedInputStream in = input();
+        int sum = 0;
+        int c;
+        while ((c = in.read()) >= 0) {
+            sum += c;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void readBulk(Blackhole bh) throws IOException {
+        BufferedInputStream in = input();
+        int n;
+        while ((n = in.read(dst, 0, dst.length)) >= 0) {
+            bh.consume(n);
+        }
+        bh.consume(dst);
+    }
+
+    @Benchmark
+    public void markReset(Blackhole bh) throws IOException {
+        BufferedInputStream in = input();
+        for (;;) {
+            in.mark(chunk);
+            int n = in.read(dst, 0, dst.length);
+            if (n < 0) {
+                break;
+            }
+            in.reset();
+            bh.consume(in.read(dst, 0, n));
+        }
+        bh.consume(dst);
+    }
+
+    @Benchmark
+    public void writePerByte() throws IOException {
+        BufferedOutputStream out = new BufferedOutputStream(sink, bufferSize);
+        byte[] b = payload;
+        for (int i = 0; i < b.length; i++) {
+            out.write(b[i]);
+        }
+        out.flush();
+    }
+
+    @Benchmark
+    public void writeBulk() throws IOException {
+        BufferedOutputStream out = new BufferedOutputStream(sink, bufferSize);
+        byte[] b = payload;
+        for (int off = 0; off < b.length; off += chunk) {
+            out.write(b, off, Math.min(chunk, b.length - off));
+        }
+        out.flush();
+    }
+
+    // 丢弃写入的数据
+    static final class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte b[], int off, int len) {
+        }
+    }
+}
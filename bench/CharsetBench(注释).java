@@ -0,0 +1,133 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+CharsetBench 通过InputStreamReader/OutputStreamWriter解码、编码的基准测试
+	charset是编码，text是文本的内容：
+		ascii  全部是ASCII字符
+		mixed  大约每8个字符中有1个非ASCII字符(拉丁字母和汉字)
+	基准测试：
+		decodeRaw       InputStreamReader直接读ByteArrayInputStream
+		decodeBuffered  InputStreamReader读BufferedInputStream(可以直接从它的缓冲区解码)
+		encode          OutputStreamWriter写BufferedOutputStream，每次写一个String片段
+		constructSmall  按编码名新建InputStreamReader(包括查找编码)，读一个很短的输入再关闭，
+		                加-prof gc可以看到每次构造分配的字节数
+	解码、编码的得分是每秒的调用次数，每次调用处理整段文本。
+
+	运行方式见BaselineCompare。
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CharsetBench {
+
+    @Param({"UTF-8", "ISO-8859-1", "UTF-16"})
+    String charset;
+
+    @Param({"ascii", "mixed"})
+    String text;
+
+    @Param({"262144"})
+    int length;
+
+    private Charset cs;
+    private String string;
+    private byte[] encoded;
+    private ByteArrayInputStream source;
+    private final char[] cbuf = new char[8192];
+    private final byte[] small = "hello".getBytes();
+    private final BufferedStreamBench.NullOutputStream sink =
+        new BufferedStreamBench.NullOutputStream();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cs = Charset.forName(charset);
+        char[] cs0 = new char[length];
+        Random r = new Random(42);
+        for (int i = 0; i < cs0.length; i++) {
+            char c = (char)(' ' + r.nextInt(95));
+            if (text.equals("mixed") && r.nextInt(8) == 0) {
+                c = r.nextBoolean() ? (char)(0xC0 + r.nextInt(0x40)) : (char)(0x4E00 + r.nextInt(0x5000));
+            }
+            cs0[i] = c;
+        }
+        string = new String(cs0);
+        // ISO-8859-1不能表示的字符在编码时被替换成'?'
+        encoded = string.getBytes(cs);
+        source = new ByteArrayInputStream(encoded);
+    }
+
+    private int drain(InputStreamReader r, Blackhole bh) throws IOException {
+        int total = 0;
+        int n;
+        while ((n = r.read(cbuf, 0, cbuf.length)) >= 0) {
+            total += n;
+        }
+        bh.consume(cbuf);
+        return total;
+    }
+
+    @Benchmark
+    public int decodeRaw(Blackhole bh) throws IOException {
+        source.reset();
+        InputStreamReader r = new InputStreamReader(source, cs);
+        int n = drain(r, bh);
+        r.close();
+        return n;
+    }
+
+    @Benchmark
+    public int decodeBuffered(Blackhole bh) throws IOException {
+        source.reset();
+        InputStreamReader r = new InputStreamReader(new BufferedInputStream(source), cs);
+        int n = drain(r, bh);
+        r.close();
+        return n;
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        OutputStreamWriter w = new OutputStreamWriter(new BufferedOutputStream(sink), cs);
+        String s = string;
+        for (int off = 0; off < s.length(); off += 100) {
+            w.write(s, off, Math.min(100, s.length() - off));
+        }
+        w.close();
+    }
+
+    @Benchmark
+    public int constructSmall() throws IOException {
+        InputStream in = new ByteArrayInputStream(small);
+        InputStreamReader r = new InputStreamReader(in, charset);
+        int c = r.read();
+        r.close();
+        return c;
+    }
+}
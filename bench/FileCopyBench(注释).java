@@ -0,0 +1,150 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+FileCopyBench 通过不同路径复制文件的基准测试
+	每次调用把源文件完整地复制到目标文件(覆盖)，得分是每次调用的平均时间：
+		streams          FileInputStream/FileOutputStream，bufferSize字节的数组
+		buffered         BufferedInputStream/BufferedOutputStream(缓冲区bufferSize)，每次读写4096字节
+		bufferedPerByte  BufferedInputStream/BufferedOutputStream，逐字节read()/write(int)
+		channel          FileInputStream/FileOutputStream的FileChannel.transferTo()
+	文件在java.io.tmpdir中，结果受文件系统和页缓存影响，比较时应在同一台机器上运行。
+
+	运行方式见BaselineCompare。
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FileCopyBench {
+
+    @Param({"65536", "16777216"})
+    int fileSize;
+
+    @Param({"8192", "65536"})
+    int bufferSize;
+
+    private File src;
+    private File dst;
+    private byte[] buf;
+    private final byte[] chunk = new byte[4096];
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        src = File.createTempFile("copybench", ".src");
+        dst = File.createTempFile("copybench", ".dst");
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        FileOutputStream out = new FileOutputStream(src);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        buf = new byte[bufferSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        src.delete();
+        dst.delete();
+    }
+
+    @Benchmark
+    public long streams() throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        FileOutputStream out = new FileOutputStream(dst);
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+                total += n;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long buffered() throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(src), bufferSize);
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dst), bufferSize);
+        long total = 0;
+        try {
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                out.write(chunk, 0, n);
+                total += n;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long bufferedPerByte() throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(src), bufferSize);
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dst), bufferSize);
+        long total = 0;
+        try {
+            int c;
+            while ((c = in.read()) >= 0) {
+                out.write(c);
+                total++;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long channel() throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        FileOutputStream out = new FileOutputStream(dst);
+        long total = 0;
+        try {
+            FileChannel ic = in.getChannel();
+            FileChannel oc = out.getChannel();
+            long size = ic.size();
+            while (total < size) {
+                total += ic.transferTo(total, size - total, oc);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,250 @@
+package bench;
+
+import java.io.ChunkPipe;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.SpscPipedInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+PipeBench 管道在两个线程之间传递数据的吞吐量和延迟
+	impl选择管道的实现：
+		piped  PipedInputStream/PipedOutputStream
+		spsc   SpscPipedInputStream/PipedOutputStream
+		chunk  ChunkPipe的字节流适配器
+	两个基准测试：
+		throughput  每次调用写入transfer个字节(每次chunk个)，等读线程全部读完才返回，得分是每秒的调用次数
+		roundTrip   写入1个字节，回声线程读到后写回，再读出来；SampleTime模式，结果中有p0.50、p0.99等分位数。
+		            两边每写1个字节都flush()，测的是flush后的交接延迟
+		roundTripUnflushed  同roundTrip，但两边都不flush()，测的是写入本身唤醒读线程的延迟。
+		            原来的PipedInputStream写入时不唤醒读线程，读线程要等wait(1000)超时才发现数据；
+		            只有piped：chunk的写端攒满或flush()才交出数据，不flush会一直等下去
+	对端线程在@Setup中启动，@TearDown中关闭管道让它退出。
+	JMH的线程不能在迭代结束时阻塞在管道上，所以每次调用都把数据完整地传递一遍。
+
+	运行方式见BaselineCompare。
+*/
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PipeBench {
+
+    // 管道的两端
+    static final class Ends {
+        final OutputStream out;
+        final InputStream in;
+
+        Ends(OutputStream out, InputStream in) {
+            this.out = out;
+            this.in = in;
+        }
+    }
+
+    static Ends open(String impl, int pipeSize) throws IOException {
+        if (impl.equals("piped")) {
+            PipedOutputStream out = new PipedOutputStream();
+            return new Ends(out, new PipedInputStream(out, pipeSize));
+        } else if (impl.equals("spsc")) {
+            PipedOutputStream out = new PipedOutputStream();
+            return new Ends(out, new SpscPipedInputStream(out, pipeSize));
+        } else if (impl.equals("chunk")) {
+            ChunkPipe pipe = new ChunkPipe(Math.max(1, pipeSize / 4096), 4096);
+            return new Ends(pipe.outputStream(), pipe.inputStream());
+        }
+        throw new IllegalArgumentException(impl);
+    }
+
+    static void closeQuietly(Ends ends) {
+        try {
+            ends.out.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            ends.in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Transfer {
+
+        @Param({"piped", "spsc", "chunk"})
+        String impl;
+
+        @Param({"65536"})
+        int pipeSize;
+
+        @Param({"256", "8192"})
+        int chunk;
+
+        @Param({"1048576"})
+        int transfer;
+
+        Ends ends;
+        byte[] src;
+
+        // 读线程已经读到的字节数
+        volatile long consumed;
+        long produced;
+
+        private Thread reader;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            ends = open(impl, pipeSize);
+            src = new byte[chunk];
+            final InputStream in = ends.in;
+            reader = new Thread("pipe-bench-reader") {
+                public void run() {
+                    byte[] b = new byte[8192];
+                    try {
+                        int n;
+                        while ((n = in.read(b, 0, b.length)) >= 0) {
+                            consumed += n;//只有这个线程写
+                        }
+                    } catch (IOException ignored) {
+                        // 关闭管道时退出
+                    }
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            closeQuietly(ends);
+            reader.join(1000);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long throughput(Transfer t) throws IOException {
+        OutputStream out = t.ends.out;
+        for (int left = t.transfer; left > 0; left -= t.chunk) {
+            out.write(t.src, 0, Math.min(t.chunk, left));
+        }
+        out.flush();
+        long target = t.produced += t.transfer;
+        while (t.consumed < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    @State(Scope.Thread)
+    public static class Echo {
+
+        @Param({"piped", "spsc", "chunk"})
+        String impl;
+
+        @Param({"1024"})
+        int pipeSize;
+
+        Ends request;
+        Ends response;
+
+        private Thread echo;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            request = open(impl, pipeSize);
+            response = open(impl, pipeSize);
+            echo = startEcho(request.in, response.out, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            closeQuietly(request);
+            closeQuietly(response);
+            echo.join(1000);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UnflushedEcho {
+
+        @Param({"piped"})
+        String impl;
+
+        @Param({"1024"})
+        int pipeSize;
+
+        Ends request;
+        Ends response;
+
+        private Thread echo;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            request = open(impl, pipeSize);
+            response = open(impl, pipeSize);
+            echo = startEcho(request.in, response.out, false);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException {
+            closeQuietly(request);
+            closeQuietly(response);
+            echo.join(1000);
+        }
+    }
+
+    // 启动回声线程：从in读到的每个字节写回out，flush为true时每个字节都flush()
+    static Thread startEcho(final InputStream in, final OutputStream out, final boolean flush) {
+        Thread echo = new Thread("pipe-bench-echo") {
+            public void run() {
+                try {
+                    int c;
+                    while ((c = in.read()) >= 0) {
+                        out.write(c);
+                        if (flush) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException ignored) {
+                    // 关闭管道时退出
+                }
+            }
+        };
+        echo.setDaemon(true);
+        echo.start();
+        return echo;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTrip(Echo e) throws IOException {
+        e.request.out.write(1);
+        e.request.out.flush();
+        return e.response.in.read();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTripUnflushed(UnflushedEcho e) throws IOException {
+        e.request.out.write(1);
+        return e.response.in.read();
+    }
+}
@@ -0,0 +1,100 @@
+package java.io;
+
+/*
+BroadcastPipedInputStream 广播管道的一个读者
+	由BroadcastPipedOutputStream.newReader()创建，
+	数据在BroadcastPipedOutputStream的共享缓冲区中，这里只保存自己的读取位置(游标)。
+	游标等状态放在单独的State对象中，写端只引用State，不引用读者本身：
+	读者没有close()就被回收时，写端由此发现并移除它，不会一直等它读。
+*/
+public class BroadcastPipedInputStream extends InputStream {
+
+    private final BroadcastPipedOutputStream source;
+
+    final State state;
+
+    // 一个读者的状态，写端的读者列表中保存的是它
+    static final class State {
+        // 是否是丢弃型读者：落后时丢弃数据，不阻塞写线程
+        final boolean dropWhenLagging;
+
+        // 已经读过的总字节数(包括丢弃的)，受source.lock保护
+        long cursor;
+
+        // 因为落后而丢弃的字节数，受source.lock保护
+        long dropped;
+
+        // 读者已经关闭(或者被回收)，受source.lock保护
+        boolean closed;
+
+        State(long cursor, boolean dropWhenLagging) {
+            this.cursor = cursor;
+            this.dropWhenLagging = dropWhenLagging;
+        }
+    }
+
+    BroadcastPipedInputStream(BroadcastPipedOutputStream source, State state) {
+        this.source = source;
+        this.state = state;
+    }
+
+    // 读取一个字节
+    public int read() throws IOException {
+        source.lock.lock();
+        try {
+            return source.read(state);
+        } finally {
+            source.lock.unlock();
+        }
+    }
+
+    // 读取数据到数组b中：至少读1个字节(必要时等待)，最多读len个字节
+    public int read(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        source.lock.lock();
+        try {
+            return source.read(state, b, off, len);
+        } finally {
+            source.lock.unlock();
+        }
+    }
+
+    // 不阻塞就能读取的字节数
+    public int available() throws IOException {
+        source.lock.lock();
+        try {
+            if (state.closed) {
+                throw new IOException("Pipe closed");
+            }
+            return source.available(state);
+        } finally {
+            source.lock.unlock();
+        }
+    }
+
+    // 因为落后而丢弃的字节数(只有丢弃型读者会丢弃数据)
+    public long droppedBytes() {
+        source.lock.lock();
+        try {
+            return state.dropped;
+        } finally {
+            source.lock.unlock();
+        }
+    }
+
+    // 关闭读者：写线程不再等它
+    public void close() throws IOException {
+        source.lock.lock();
+        try {
+            source.remove(state);
+        } finally {
+            source.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package java.io;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+BroadcastPipedOutputStream 广播管道输出流：一个写线程，多个读者
+	PipedOutputStream只能连接一个PipedInputStream("Already connected")，
+	想把同一份数据交给N个读者，只能把每块数据复制到N个管道中。
+	这里写线程只把数据写入一个共享的环形缓冲区一次，
+	每个读者(BroadcastPipedInputStream)有自己的读取位置(游标)，互不影响：
+		普通读者：写线程要等最慢的普通读者读完，才能覆盖缓冲区中的数据
+		丢弃型读者：落后太多时，直接跳过被覆盖的数据(记录丢了多少字节)，写线程永远不等它
+
+	tail 写入的总字节数，游标也是“已经读过的总字节数”，
+	所以 tail - 游标 就是读者还没读的字节数，下标是 位置 % 缓冲区大小。
+
+	用法：
+		BroadcastPipedOutputStream out = new BroadcastPipedOutputStream(64 * 1024);
+		InputStream a = out.newReader(false);
+		InputStream b = out.newReader(true);
+		out.write(...)
+	新读者从创建时的写入位置开始读，看不到之前写入的数据。
+	读者关闭之后立即不能再读("Pipe closed")：写线程已经不等它，缓冲区中它没读的数据随时会被覆盖。
+	读者没有close()就被回收时，由PipedOutputStream的后台线程把它移除，普通读者也不会让写线程永远等下去。
+*/
+public class BroadcastPipedOutputStream extends PipedOutputStream {
+
+    // 环形缓冲区
+    private final byte[] ring;
+
+    // 写入的总字节数
+    private long tail;
+
+    // 已经发布的总字节数：读者只能读到这里。没有开启合并写时总是等于tail
+    private long published;
+
+    // 合并写：攒够coalesce个字节才发布，0表示不合并
+    private int coalesce;
+    // 没有发布的第一个字节最多等待多久(纳秒)，0表示不限
+    private long lingerNanos;
+    // 是否有没有发布的字节在计时，以及开始计时的时间
+    private boolean lingering;
+    private long unpublishedSince;
+    // 是否已经安排了LingerTimer
+    private boolean lingerScheduled;
+
+    private boolean closed;
+
+    // 所有没有关闭的读者的状态
+    private final CopyOnWriteArrayList<BroadcastPipedInputStream.State> readers =
+        new CopyOnWriteArrayList<BroadcastPipedInputStream.State>();
+
+    final ReentrantLock lock = new ReentrantLock();
+    // 有新数据(或者写线程关闭)：读者在这里等待
+    final Condition dataAvailable = lock.newCondition();
+    // 最慢的普通读者读走了数据(或者关闭)：写线程在这里等待
+    final Condition spaceAvailable = lock.newCondition();
+
+    // 构造函数：缓冲区大小是bufferSize
+    public BroadcastPipedOutputStream(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        ring = new byte[bufferSize];
+    }
+
+    // 新建一个读者，从当前写入位置开始读取(没有发布的字节先发布)。
+    // dropWhenLagging为true时，读者落后超过一个缓冲区时丢弃被覆盖的数据，写线程不会因它阻塞
+    public BroadcastPipedInputStream newReader(boolean dropWhenLagging) {
+        BroadcastPipedInputStream r;
+        lock.lock();
+        try {
+            publish();
+            BroadcastPipedInputStream.State state =
+                new BroadcastPipedInputStream.State(tail, dropWhenLagging);
+            readers.add(state);
+            r = new BroadcastPipedInputStream(this, state);
+        } finally {
+            lock.unlock();
+        }
+        AbandonedStreams.watch(r, new ReaderAbandoned(this, r.state));
+        return r;
+    }
+
+    // 读者没有close()就被回收了：移除它的状态。由AbandonedStreams的线程执行，不引用读者本身
+    private static final class ReaderAbandoned implements Runnable {
+        private final BroadcastPipedOutputStream source;
+        private final BroadcastPipedInputStream.State state;
+
+        ReaderAbandoned(BroadcastPipedOutputStream source,
+                        BroadcastPipedInputStream.State state) {
+            this.source = source;
+            this.state = state;
+        }
+
+        public void run() {
+            source.lock.lock();
+            try {
+                source.remove(state);
+            } finally {
+                source.lock.unlock();
+            }
+        }
+    }
+
+    // 广播管道的读者只能通过newReader()创建
+    public void connect(PipedInputStream snk) throws IOException {
+        throw new IOException("Use newReader() to attach readers to a broadcast pipe");
+    }
+
+    // 开启合并写。数据本来就只复制进共享缓冲区一次，这里合并的是“发布”：
+    // 写入的字节攒够bufferSize个(最多是共享缓冲区的大小)、flush()、close()，
+    // 或者第一个没有发布的字节已经等了linger时间时，才唤醒读者。linger为0表示不限
+    public void setCoalescing(int bufferSize, long linger, TimeUnit unit)
+            throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        if (linger < 0) {
+            throw new IllegalArgumentException("Negative linger");
+        }
+        lock.lock();
+        try {
+            publish();
+            coalesce = Math.min(bufferSize, ring.length);
+            lingerNanos = unit.toNanos(linger);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 关闭合并写，没有发布的字节先发布
+    public void clearCoalescing() throws IOException {
+        lock.lock();
+        try {
+            publish();
+            coalesce = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 发布已经写入的所有字节并唤醒读者。调用方持有lock
+    private void publish() {
+        lingering = false;
+        if (published != tail) {
+            published = tail;
+            dataAvailable.signalAll();
+        }
+    }
+
+    // 写入了字节之后：没有开启合并写、攒够了或者等得太久就发布，否则确保到时会发布。调用方持有lock
+    private void published() {
+        if (coalesce == 0 || tail - published >= coalesce) {
+            publish();
+        } else if (lingerNanos > 0) {
+            long now = System.nanoTime();
+            if (!lingering) {
+                lingering = true;
+                unpublishedSince = now;
+                if (!lingerScheduled) {
+                    lingerScheduled = true;
+                    LingerTimer.schedule(this, lingerNanos);
+                }
+            } else if (now - unpublishedSince >= lingerNanos) {
+                publish();
+            }
+        }
+    }
+
+    // LingerTimer的线程调用：检查没有发布的字节是否已经等了lingerNanos
+    void publishLingered() {
+        if (!lock.tryLock()) {
+            LingerTimer.schedule(this, Math.max(lingerNanos, LINGER_RETRY_NANOS));
+            return;
+        }
+        try {
+            lingerScheduled = false;
+            if (!lingering) {
+                return;
+            }
+            long left = unpublishedSince + lingerNanos - System.nanoTime();
+            if (left > 0) {
+                // 上次发布之后又有新的字节在计时
+                lingerScheduled = true;
+                LingerTimer.schedule(this, left);
+            } else {
+                publish();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 等待共享缓冲区中有空间，返回可以写入的字节数。调用方持有lock
+    private int awaitSpace() throws IOException {
+        int capacity = ring.length;
+        for (;;) {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            // 写线程只受最慢的普通读者限制
+            long slowest = tail;
+            for (BroadcastPipedInputStream.State r : readers) {
+                if (!r.dropWhenLagging && r.cursor < slowest) {
+                    slowest = r.cursor;
+                }
+            }
+            int free = capacity - (int)(tail - slowest);
+            if (free > 0) {
+                return free;
+            }
+            // 读者只能读到已经发布的位置，等待之前必须发布
+            publish();
+            try {
+                spaceAvailable.await();
+            } catch (InterruptedException ex) {
+                throw new java.io.InterruptedIOException();
+            }
+        }
+    }
+
+    // 写入了n个字节之后：被覆盖的数据，丢弃型读者直接跳过。调用方持有lock
+    private void advance(int n) {
+        tail += n;
+        long oldest = tail - ring.length;
+        for (BroadcastPipedInputStream.State r : readers) {
+            if (r.dropWhenLagging && r.cursor < oldest) {
+                r.dropped += oldest - r.cursor;
+                r.cursor = oldest;
+            }
+        }
+    }
+
+    // 把一个字节直接写入共享缓冲区
+    public void write(int b) throws IOException {
+        lock.lock();
+        try {
+            awaitSpace();
+            ring[(int)(tail % ring.length)] = (byte)b;
+            advance(1);
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 把数据写入共享缓冲区一次，所有读者都能读到
+    public void write(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                   ((off + len) > b.length) || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int capacity = ring.length;
+        lock.lock();
+        try {
+            while (len > 0) {
+                int n = Math.min(awaitSpace(), len);
+                int idx = (int)(tail % capacity);
+                int first = Math.min(n, capacity - idx);
+                System.arraycopy(b, off, ring, idx, first);
+                if (n > first) {
+                    System.arraycopy(b, off + first, ring, 0, n - first);
+                }
+                advance(n);
+                off += n;
+                len -= n;
+            }
+            published();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 等待读者r有已经发布的数据。返回false表示写线程已经关闭并且r读完了(EOF)。调用方持有lock。
+    // r关闭之后，即使还有没读的数据也不能再读：写线程已经不等它，这些数据可能已经被覆盖
+    private boolean awaitData(BroadcastPipedInputStream.State r) throws IOException {
+        for (;;) {
+            if (r.closed) {
+                throw new IOException("Pipe closed");
+            }
+            if (r.cursor < published) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                dataAvailable.await();
+            } catch (InterruptedException ex) {
+                throw new java.io.InterruptedIOException();
+            }
+        }
+    }
+
+    // 读者读取一个字节，直接从共享缓冲区中取。调用方持有lock
+    int read(BroadcastPipedInputStream.State r) throws IOException {
+        if (!awaitData(r)) {
+            return -1;
+        }
+        int b = ring[(int)(r.cursor % ring.length)] & 0xFF;
+        r.cursor++;
+        if (!r.dropWhenLagging) {
+            spaceAvailable.signal();
+        }
+        return b;
+    }
+
+    // 读者读取数据。调用方持有lock
+    int read(BroadcastPipedInputStream.State r, byte b[], int off, int len)
+            throws IOException {
+        if (!awaitData(r)) {
+            return -1;
+        }
+        int capacity = ring.length;
+        int n = (int)Math.min(published - r.cursor, len);
+        int idx = (int)(r.cursor % capacity);
+        int first = Math.min(n, capacity - idx);
+        System.arraycopy(ring, idx, b, off, first);
+        if (n > first) {
+            System.arraycopy(ring, 0, b, off + first, n - first);
+        }
+        r.cursor += n;
+        if (!r.dropWhenLagging) {
+            spaceAvailable.signal();
+        }
+        return n;
+    }
+
+    // 读者不阻塞就能读的字节数(已经发布的部分)。调用方持有lock
+    int available(BroadcastPipedInputStream.State r) {
+        return (int)Math.max(0, published - r.cursor);
+    }
+
+    // 读者关闭(或者被回收)：不再限制写线程，可以重复调用。调用方持有lock
+    void remove(BroadcastPipedInputStream.State r) {
+        if (r.closed) {
+            return;
+        }
+        r.closed = true;
+        readers.remove(r);
+        spaceAvailable.signal();
+        dataAvailable.signalAll();
+    }
+
+    // 发布没有发布的字节，唤醒所有读者
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            publish();
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 关闭：读者读完已经写入的数据后返回-1
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            publish();
+            dataAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
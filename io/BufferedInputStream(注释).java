@@ -1,4 +1,5 @@
 package java.io;
+import java.nio.charset.Charset;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class BufferedInputStream extends FilterInputStream {
@@ -70,7 +71,9 @@ public class BufferedInputStream extends FilterInputStream {
     // 从“输入流”中读取数据，并填充到缓冲区中。
     // 后面会对该函数进行详细说明！
     private void fill() throws IOException {
+        Object event = IOEvents.begin(IOEvents.FILL);
         byte[] buffer = getBufIfOpen();
+        int oldSize = buffer.length;
         if (markpos < 0)
             pos = 0;            /* no mark: throw away the buffer */
         else if (pos >= buffer.length)  /* no room left in buffer */
@@ -97,6 +100,48 @@ public class BufferedInputStream extends FilterInputStream {
         int n = getInIfOpen().read(buffer, pos, buffer.length - pos);
         if (n > 0)
             count = n + pos;
+        IOEvents.endFill(event, buffer.length - pos, n, markpos >= 0, oldSize, buffer.length);
+    }
+
+    // 保证缓冲区中至少有min个未读字节(供直接解码缓冲区的FastDecoder补齐被截断的字符)。
+    // 与fill()不同，未读的字节不会被丢弃：缓冲区满时，先把mark(没有mark时是pos)之前的字节移走，
+    // 还不够就像fill()一样扩大缓冲区或者放弃mark。
+    // 返回未读字节数，小于min说明已经到了输入流的末尾。调用方持有this的锁
+    int ensureBuffered(int min) throws IOException {
+        byte[] buffer = getBufIfOpen();
+        while (count - pos < min) {
+            Object event = IOEvents.begin(IOEvents.FILL);
+            int oldSize = buffer.length;
+            if (count == buffer.length) {
+                int keep = (markpos < 0) ? pos : markpos;
+                if (keep > 0) {
+                    System.arraycopy(buffer, keep, buffer, 0, count - keep);
+                    count -= keep;
+                    pos -= keep;
+                    if (markpos >= 0)
+                        markpos = 0;
+                } else if (markpos >= 0 && buffer.length >= marklimit) {
+                    markpos = -1;   /* buffer got too big, invalidate mark */
+                    continue;
+                } else {            /* grow buffer (没有mark时，是缓冲区比min还小) */
+                    int nsz = buffer.length * 2;
+                    if (markpos >= 0 && nsz > marklimit)
+                        nsz = marklimit;
+                    byte nbuf[] = new byte[nsz];
+                    System.arraycopy(buffer, 0, nbuf, 0, count);
+                    if (!bufUpdater.compareAndSet(this, buffer, nbuf)) {
+                        throw new IOException("Stream closed");
+                    }
+                    buffer = nbuf;
+                }
+            }
+            int n = getInIfOpen().read(buffer, count, buffer.length - count);
+            IOEvents.endFill(event, buffer.length - count, n, markpos >= 0, oldSize, buffer.length);
+            if (n <= 0)
+                break;
+            count += n;
+        }
+        return count - pos;
     }
 
     // 读取下一个字节
@@ -160,6 +205,89 @@ public class BufferedInputStream extends FilterInputStream {
         }
     }
 
+    // 读取长度为len的字段，并用编码cs转换成String。不够len个字节时抛出EOFException。
+    // 字段在缓冲区中时直接从buf创建String，不经过Reader的char数组，见toString(byte[],int,int,Charset)
+    public synchronized String readString(int len, Charset cs) throws IOException {
+        if (len < 0) {
+            throw new IllegalArgumentException("len < 0");
+        }
+        if (len <= getBufIfOpen().length) {
+            if (ensureBuffered(len) < len)
+                throw new EOFException();
+            String s = toString(getBufIfOpen(), pos, len, cs);
+            pos += len;
+            return s;
+        }
+        // 字段比缓冲区还大
+        byte[] b = new byte[len];
+        int n = 0;
+        while (n < len) {
+            int nread = read1(b, n, len - n);
+            if (nread < 0)
+                throw new EOFException();
+            n += nread;
+        }
+        return toString(b, 0, len, cs);
+    }
+
+    // 读取以delim结束的字段(不包含delim，delim被读走)，并用编码cs转换成String。
+    // 最后一个字段可以没有delim；已经到末尾时返回null。字段超过maxLen个字节时抛出IOException
+    public synchronized String readString(byte delim, Charset cs, int maxLen)
+        throws IOException
+    {
+        getBufIfOpen(); // Check for closed stream
+        // [pos, pos + scanned)中已经确认没有delim
+        int scanned = 0;
+        for (;;) {
+            byte[] buffer = getBufIfOpen();
+            for (int i = pos + scanned; i < count; i++) {
+                if (buffer[i] == delim) {
+                    int len = i - pos;
+                    if (len > maxLen)
+                        throw new IOException("Field longer than " + maxLen + " bytes");
+                    String s = toString(buffer, pos, len, cs);
+                    pos = i + 1;
+                    return s;
+                }
+            }
+            scanned = count - pos;
+            if (scanned > maxLen)
+                throw new IOException("Field longer than " + maxLen + " bytes");
+            // 缓冲区中没有delim，再读入至少一个字节(必要时扩大缓冲区)
+            if (ensureBuffered(scanned + 1) <= scanned) {
+                if (scanned == 0)
+                    return null;
+                String s = toString(getBufIfOpen(), pos, scanned, cs);
+                pos += scanned;
+                return s;
+            }
+        }
+    }
+
+    // 用编码cs把b中从off开始的len个字节转换成String。
+    // ISO-8859-1，以及全是ASCII字节的US-ASCII、UTF-8，每个字节就是一个char，
+    // 用String(byte[],int hibyte,int,int)直接把字节扩展进String，不需要解码器，也没有中间的char数组；
+    // 其它情况(含有 >= 0x80 的字节、其它编码)交给String(byte[],int,int,Charset)解码
+    @SuppressWarnings("deprecation")
+    private static String toString(byte[] b, int off, int len, Charset cs) {
+        String name = cs.name();
+        if (name.equals("ISO-8859-1")
+                || ((name.equals("US-ASCII") || name.equals("UTF-8"))
+                    && isAscii(b, off, len))) {
+            return new String(b, 0, off, len);
+        }
+        return new String(b, off, len, cs);
+    }
+
+    // b中从off开始的len个字节是否都 < 0x80
+    private static boolean isAscii(byte[] b, int off, int len) {
+        int bits = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            bits |= b[i];
+        }
+        return bits >= 0;
+    }
+
     // 忽略n个字节
     public synchronized long skip(long n) throws IOException {
         getBufIfOpen(); // Check for closed stream
@@ -170,8 +298,9 @@ public class BufferedInputStream extends FilterInputStream {
 
         if (avail <= 0) {
             // If no mark position set then don't keep in buffer
-            if (markpos <0)
+            if (markpos <0) {
                 return getInIfOpen().skip(n);
+            }
 
             // Fill in buffer to save bytes for reset
             fill();
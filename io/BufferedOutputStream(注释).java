@@ -24,11 +24,27 @@ public class BufferedOutputStream extends FilterOutputStream {
     // 将缓冲数据都写入到输出流中
     private void flushBuffer() throws IOException {
         if (count > 0) {
+            Object event = IOEvents.begin(IOEvents.FLUSH);
             out.write(buf, 0, count);
+            IOEvents.endFlush(event, count, buf.length);
             count = 0;
         }
     }
 
+    // 从缓冲中租用至少min个字节的连续空间(min不能大于缓冲区大小)，返回空间的起始位置。
+    // 空间不够时先将缓冲数据写入到输出流中。调用方持有this的锁，直接写入buf后用commit()提交
+    int lease(int min) throws IOException {
+        if (buf.length - count < min) {
+            flushBuffer();
+        }
+        return count;
+    }
+
+    // 提交租用的空间：buf中count到end之间已经写入了数据
+    void commit(int end) {
+        count = end;
+    }
+
     // 将“数据b(转换成字节类型)”写入到输出流中
     public synchronized void write(int b) throws IOException {
         // 若缓冲已满，则先将缓冲数据写入到输出流中。
@@ -0,0 +1,317 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ChunkPipe 以数据块为单位、转移所有权的管道
+	PipedInputStream.receive(byte[],int,int)把写线程的数组复制到buffer中，
+	read(byte[],...)再从buffer复制出去，每个字节要复制两次。
+	这里管道中传递的是整个数据块(ByteBuffer)：
+		写线程send(chunk)之后，chunk的所有权就交给了管道，写线程不能再修改它
+		读线程take()直接拿到这个chunk读取，不发生任何复制
+		读完之后recycle(chunk)，chunk回到池中，写线程可以通过allocate()重新拿到它
+	管道中最多排队maxChunks个数据块，满了写线程等待。
+
+	还在使用字节流接口的调用方，可以用outputStream()/inputStream()适配：
+		输出流把写入的字节攒成数据块再send，输入流从take到的数据块中读取字节并自动recycle。
+		注意适配器仍然是每个字节复制两次：写入时复制到数据块中，read(byte[],...)时再复制到调用方的数组中。
+		只有send()/take()两端都直接使用数据块时才不复制。
+		读的一端只是要把数据交给另一个输出流时，用transferTo(out)：
+		数据块中的字节直接交给out.write()，不再经过中间的数组。
+*/
+public class ChunkPipe implements Closeable {
+
+    // 管道中最多排队的数据块数
+    private final int maxChunks;
+
+    // 数据块的大小(allocate()返回的数据块，以及输出流适配器攒数据用的数据块)
+    private final int chunkSize;
+
+    // 排队中的数据块，受lock保护
+    private final ArrayDeque<ByteBuffer> queue;
+
+    // 回收池：读完的数据块放在这里等待重用
+    private final ConcurrentLinkedQueue<ByteBuffer> pool =
+        new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    // 回收池中最多保留的数据块数
+    private final int maxPooled;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private boolean closedByWriter;
+    private boolean closedByReader;
+
+    // 构造函数：最多排队maxChunks个数据块，每个数据块chunkSize字节
+    public ChunkPipe(int maxChunks, int chunkSize) {
+        if (maxChunks <= 0) {
+            throw new IllegalArgumentException("maxChunks <= 0");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0");
+        }
+        this.maxChunks = maxChunks;
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxChunks * 2;
+        this.queue = new ArrayDeque<ByteBuffer>(maxChunks);
+    }
+
+    // 获取一个空的数据块(position为0，limit为chunkSize)：优先重用回收池中的
+    public ByteBuffer allocate() {
+        ByteBuffer bb = pool.poll();
+        if (bb == null) {
+            return ByteBuffer.allocate(chunkSize);
+        }
+        pooled.decrementAndGet();
+        bb.clear();
+        return bb;
+    }
+
+    // 把读完的数据块放回回收池。池满了就交给GC
+    public void recycle(ByteBuffer chunk) {
+        if (chunk.capacity() != chunkSize || chunk.isReadOnly()) {
+            return;//不是allocate()得到的大小，不能重用
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(chunk);
+    }
+
+    // 发送数据块：chunk的[position, limit)就是要传递的数据，之后chunk归管道所有。
+    // 管道满时等待
+    public void send(ByteBuffer chunk) throws IOException {
+        if (chunk == null) {
+            throw new NullPointerException();
+        }
+        if (!chunk.hasRemaining()) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (;;) {
+                if (closedByWriter || closedByReader) {
+                    throw new IOException("Pipe closed");
+                }
+                if (queue.size() < maxChunks) {
+                    break;
+                }
+                try {
+                    notFull.await();
+                } catch (InterruptedException ex) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+            queue.addLast(chunk);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 发送数组b从off开始的len个字节，不复制，之后b归管道所有
+    public void send(byte b[], int off, int len) throws IOException {
+        send(ByteBuffer.wrap(b, off, len));
+    }
+
+    // 取出下一个数据块，管道为空时等待；写线程已经关闭并且没有数据时返回null。
+    // 读完后应调用recycle()
+    public ByteBuffer take() throws IOException {
+        lock.lock();
+        try {
+            for (;;) {
+                if (closedByReader) {
+                    throw new IOException("Pipe closed");
+                }
+                ByteBuffer bb = queue.pollFirst();
+                if (bb != null) {
+                    notFull.signal();
+                    return bb;
+                }
+                if (closedByWriter) {
+                    return null;
+                }
+                try {
+                    notEmpty.await();
+                } catch (InterruptedException ex) {
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 写线程关闭：读线程读完排队的数据块后，take()返回null
+    public void closeWriter() {
+        lock.lock();
+        try {
+            closedByWriter = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 读线程关闭：丢弃排队的数据块，写线程的send()抛出异常
+    public void close() {
+        lock.lock();
+        try {
+            closedByReader = true;
+            queue.clear();
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 把管道中的数据全部交给out，直到写线程关闭，返回传递的字节数。
+    // 每个数据块直接用out.write(数组, ...)写出然后回收，不复制到中间的数组中
+    public long transferTo(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new NullPointerException();
+        }
+        long total = 0;
+        ByteBuffer bb;
+        while ((bb = take()) != null) {
+            int n = bb.remaining();
+            if (bb.hasArray()) {
+                out.write(bb.array(), bb.arrayOffset() + bb.position(), n);
+            } else {
+                byte[] tmp = new byte[n];
+                bb.get(tmp);
+                out.write(tmp, 0, n);
+            }
+            total += n;
+            recycle(bb);
+        }
+        return total;
+    }
+
+    // 字节流适配器：写入的字节攒满一个数据块就发送
+    public OutputStream outputStream() {
+        return new ChunkOutputStream();
+    }
+
+    // 字节流适配器：从数据块中读取字节，读完的数据块自动回收
+    public InputStream inputStream() {
+        return new ChunkInputStream();
+    }
+
+    private final class ChunkOutputStream extends OutputStream {
+        private ByteBuffer current;
+
+        public void write(int b) throws IOException {
+            if (current == null) {
+                current = allocate();
+            }
+            current.put((byte)b);
+            if (!current.hasRemaining()) {
+                flush();
+            }
+        }
+
+        public void write(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                       ((off + len) > b.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            while (len > 0) {
+                if (current == null) {
+                    current = allocate();
+                }
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                off += n;
+                len -= n;
+                if (!current.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        // 发送当前攒了数据的数据块
+        public void flush() throws IOException {
+            if (current != null && current.position() > 0) {
+                ByteBuffer bb = current;
+                current = null;
+                bb.flip();
+                send(bb);
+            }
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                closeWriter();
+            }
+        }
+    }
+
+    private final class ChunkInputStream extends InputStream {
+        private ByteBuffer current;
+        private boolean eof;
+
+        // 当前数据块读完就回收，并取下一个；返回false表示EOF
+        private boolean ensureChunk() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (current != null) {
+                    recycle(current);
+                    current = null;
+                }
+                if (eof) {
+                    return false;
+                }
+                current = take();
+                if (current == null) {
+                    eof = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!ensureChunk()) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+
+        public int read(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+            if (!ensureChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        public int available() throws IOException {
+            return (current == null) ? 0 : current.remaining();
+        }
+
+        public void close() {
+            ChunkPipe.this.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package java.io;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/*
+CoderCache 每个线程缓存的解码器、编码器和缓冲区
+	每次new InputStreamReader/OutputStreamWriter都会新建CharsetDecoder/CharsetEncoder以及字节、字符缓冲区，
+	程序中有大量短小的流时(例如每个请求包装一次)，这些对象的创建占了构造的大部分开销。
+	这里在每个线程中按编码缓存少量用过的解码器、编码器，以及各一个字节缓冲区、字符缓冲区：
+		构造流时从当前线程的缓存中取(取走后只属于这个流)，没有就新建
+		close()时reset()之后放回当前线程的缓存，缓存满了就丢弃
+	没有close()的流不会归还，由GC回收即可。
+	缓存中的解码器、编码器都是onMalformedInput/onUnmappableCharacter(REPLACE)，
+	与StreamDecoder/StreamEncoder自己创建的相同，调用方传入的解码器、编码器不缓存。
+*/
+final class CoderCache {
+
+    // 每个线程最多缓存的解码器、编码器个数(各自)
+    private static final int MAX_CODERS = 4;
+
+    private static final ThreadLocal<CoderCache> cache = new ThreadLocal<CoderCache>() {
+        protected CoderCache initialValue() {
+            return new CoderCache();
+        }
+    };
+
+    private final CharsetDecoder[] decoders = new CharsetDecoder[MAX_CODERS];
+    private final CharsetEncoder[] encoders = new CharsetEncoder[MAX_CODERS];
+    private byte[] bytes;
+    private char[] chars;
+
+    private CoderCache() {
+    }
+
+    // 编码名对应的编码，与StreamDecoder/StreamEncoder一样，不支持时抛出UnsupportedEncodingException
+    static Charset forName(String charsetName) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException x) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+    }
+
+    // 取出编码cs的解码器，没有就新建
+    static CharsetDecoder decoder(Charset cs) {
+        CharsetDecoder[] ds = cache.get().decoders;
+        for (int i = 0; i < ds.length; i++) {
+            CharsetDecoder d = ds[i];
+            if (d != null && d.charset().equals(cs)) {
+                ds[i] = null;
+                return d;
+            }
+        }
+        return cs.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // 归还decoder(必须是decoder()取出的，并且不会再被使用)
+    static void release(CharsetDecoder d) {
+        d.reset();
+        CharsetDecoder[] ds = cache.get().decoders;
+        for (int i = 0; i < ds.length; i++) {
+            if (ds[i] == null) {
+                ds[i] = d;
+                return;
+            }
+        }
+    }
+
+    // 取出编码cs的编码器，没有就新建
+    static CharsetEncoder encoder(Charset cs) {
+        CharsetEncoder[] es = cache.get().encoders;
+        for (int i = 0; i < es.length; i++) {
+            CharsetEncoder e = es[i];
+            if (e != null && e.charset().equals(cs)) {
+                es[i] = null;
+                return e;
+            }
+        }
+        return cs.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // 归还encoder(必须是encoder()取出的，并且不会再被使用)
+    static void release(CharsetEncoder e) {
+        e.reset();
+        CharsetEncoder[] es = cache.get().encoders;
+        for (int i = 0; i < es.length; i++) {
+            if (es[i] == null) {
+                es[i] = e;
+                return;
+            }
+        }
+    }
+
+    // 取出大小为size的字节缓冲区，没有就新建
+    static byte[] bytes(int size) {
+        CoderCache c = cache.get();
+        byte[] b = c.bytes;
+        if (b != null && b.length == size) {
+            c.bytes = null;
+            return b;
+        }
+        return new byte[size];
+    }
+
+    static void release(byte[] b) {
+        cache.get().bytes = b;
+    }
+
+    // 取出大小为size的字符缓冲区，没有就新建
+    static char[] chars(int size) {
+        CoderCache c = cache.get();
+        char[] b = c.chars;
+        if (b != null && b.length == size) {
+            c.chars = null;
+            return b;
+        }
+        return new char[size];
+    }
+
+    static void release(char[] b) {
+        cache.get().chars = b;
+    }
+}
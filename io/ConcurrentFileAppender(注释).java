@@ -0,0 +1,158 @@
+package java.io;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ConcurrentFileAppender 多线程追加写文件
+	多个线程往同一个 new FileOutputStream(file, true) 写时，
+	要么在外面加锁，要么依赖O_APPEND的原子性(只对小的写入成立)。
+	这里每个线程：
+		(01) 用原子加法在文件末尾预留一段偏移 [start, start+len)
+		(02) 把记录写到预留的位置
+		(03) 写完后推进“已提交长度”。已提交长度只会按顺序推进，
+		     所以读者只读已提交长度之前的数据，永远看不到空洞
+	预留和提交都不需要锁；只有(02)的“移动文件位置+写”在一个很短的锁内完成。
+	不用FileChannel的定位写(pwrite)：FileChannel响应中断，一个追加线程被中断就会关闭通道，
+	连同共享的描述符，之后所有线程的追加都失败。JDK 8中也没有不响应中断的定位写，
+	所以这里用RandomAccessFile的seek+write，native的write不响应中断。
+	同一个文件的普通(经过页缓存的)写入在内核中本来就按inode串行(例如ext4)，这个锁基本不增加等待。
+
+	已提交长度只在本进程(本对象)内有效：它不写入文件，其它进程看到的是文件的实际长度，
+	其中可能包含还没写完的记录(空洞)。跨进程的读者需要自己的记录格式(例如长度+校验和)来识别完整的记录。
+
+	注意：不能直接用FileOutputStream的追加模式打开，
+	因为以O_APPEND打开的描述符，每次写入都会忽略文件位置直接写到文件末尾。
+	所以这里用RandomAccessFile的"rw"模式打开(不截断文件)，从文件当前长度开始预留。
+*/
+public class ConcurrentFileAppender implements Closeable {
+
+    private final RandomAccessFile raf;
+
+    // 保护raf的文件位置：seek和write必须一起完成
+    private final Object writeLock = new Object();
+
+    // 下一条记录的起始偏移(预留指针)
+    private final AtomicLong reserved;
+
+    // 已提交长度：[0, committed)之间的数据都已经完整写入
+    private final AtomicLong committed;
+
+    // 已经写完、但前面还有没写完的记录：起始偏移 -> 结束偏移
+    private final ConcurrentSkipListMap<Long, Long> completed =
+        new ConcurrentSkipListMap<Long, Long>();
+
+    // 某条记录写失败后，已提交长度无法再越过它，之后的追加都失败
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    // 构造函数：打开文件name，从文件末尾开始追加
+    public ConcurrentFileAppender(String name) throws FileNotFoundException {
+        this(name != null ? new File(name) : null);
+    }
+
+    // 构造函数：打开文件file，从文件末尾开始追加
+    public ConcurrentFileAppender(File file) throws FileNotFoundException {
+        if (file == null) {
+            throw new NullPointerException();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        long size;
+        try {
+            size = raf.length();
+        } catch (IOException x) {
+            try {
+                raf.close();
+            } catch (IOException ignore) {
+            }
+            throw new FileNotFoundException(file.getPath() + " (" + x.getMessage() + ")");
+        }
+        reserved = new AtomicLong(size);
+        committed = new AtomicLong(size);
+    }
+
+    // 追加整个数组b，作为一条记录。返回记录在文件中的起始偏移
+    public long append(byte b[]) throws IOException {
+        return append(b, 0, b.length);
+    }
+
+    // 追加数组b从off开始的len个字节，作为一条记录。返回记录在文件中的起始偏移。
+    // 一条记录总是连续地写在文件中，不会和其它线程的记录交错
+    public long append(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                   ((off + len) > b.length) || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        // 预留偏移：这是线程之间唯一的同步点
+        long start = reserved.getAndAdd(len);
+        if (len == 0) {
+            return start;
+        }
+        try {
+            // write会一直写到len个字节全部写完
+            synchronized (writeLock) {
+                raf.seek(start);
+                raf.write(b, off, len);
+            }
+        } catch (IOException x) {
+            failure = x;
+            throw x;
+        }
+        commit(start, start + len);
+        return start;
+    }
+
+    // 记录[start, end)已经写完，尽可能按顺序推进已提交长度。
+    // 若它前面还有没写完的记录，就先放到completed中，由写完前面那条记录的线程顺带推进
+    private void commit(long start, long end) {
+        completed.put(start, end);
+        for (;;) {
+            long c = committed.get();
+            Long e = completed.get(c);
+            if (e == null) {
+                return;//下一段还没写完，交给写它的线程
+            }
+            if (committed.compareAndSet(c, e)) {
+                completed.remove(c);
+            }
+        }
+    }
+
+    // 已提交长度：本进程中的读者只应该读取[0, committedLength())之间的数据。
+    // 它只存在于本对象中，其它进程看不到，见类的说明
+    public long committedLength() {
+        return committed.get();
+    }
+
+    // 已预留长度：包括还在写入中的记录
+    public long reservedLength() {
+        return reserved.get();
+    }
+
+    // 把已提交的数据刷到磁盘。
+    // 用描述符的fsync而不是FileChannel.force()：force被中断时同样会关闭共享的描述符
+    public void sync() throws IOException {
+        ensureOpen();
+        raf.getFD().sync();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Appender closed");
+        }
+        IOException x = failure;
+        if (x != null) {
+            throw new IOException("Earlier append failed", x);
+        }
+    }
+
+    // 关闭。调用前应确保没有线程还在append，否则它们的记录可能只写了一部分
+    public void close() throws IOException {
+        closed = true;
+        raf.close();
+    }
+}
@@ -0,0 +1,365 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.security.AccessController;
+import sun.misc.Unsafe;
+import sun.security.action.GetPropertyAction;
+import sun.nio.cs.HistoricallyNamedCharset;
+
+/*
+FastDecoder InputStreamReader针对UTF-8、US-ASCII、ISO-8859-1的快速解码
+	StreamDecoder对所有编码都走CharsetDecoder的通用循环，而实际的输入几乎都是ASCII。
+	这里直接从自己的字节缓冲区解码到调用方的char数组：
+		ISO-8859-1  每个字节直接扩展成char
+		US-ASCII    同上，遇到 >= 0x80 的字节输出替换字符'�'
+		UTF-8       一次读8个字节(一个long)，用 (w & 0x8080808080808080L) == 0 判断8个字节是否都是ASCII，
+		            是就整体扩展；遇到多字节序列，只把这一段非ASCII字节交给CharsetDecoder
+	多字节序列被缓冲区末尾截断时(一个字符的字节分在两次read()中)，
+	剩下的字节被移到缓冲区开头，读入更多字节后再解码。
+	错误处理与StreamDecoder一样：非法或无法映射的字节替换成'�'。
+	Unsafe.getLong在地址不是8的倍数时，只有支持非对齐访问的平台(x86等，见UNALIGNED)才能直接读；
+	其它平台上先逐个字节走到对齐的地址，再8个一组。FastEncoder也一样。
+
+	in正好是BufferedInputStream时，不使用自己的字节缓冲区，而是直接解码BufferedInputStream.buf中的字节
+	(解码期间持有它的锁)，被截断的序列由BufferedInputStream.ensureBuffered()在它的缓冲区中补齐。
+	这样每个字节只从文件复制一次(到BufferedInputStream.buf)，就解码成字符。
+	其它输入流(例如FileInputStream)直接读入自己的字节缓冲区，同样只复制一次。
+*/
+final class FastDecoder {
+
+    private static final int DEFAULT_BYTE_BUFFER_SIZE = 8192;
+
+    // 支持的编码
+    private static final int LATIN1 = 0;
+    private static final int ASCII = 1;
+    private static final int UTF8 = 2;
+
+    // 8个字节中任意一个的最高位为1，就不全是ASCII
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private static final Unsafe unsafe = Unsafe.getUnsafe();
+    private static final long BYTE_ARRAY_OFFSET = unsafe.arrayBaseOffset(byte[].class);
+
+    // 平台是否允许非对齐的Unsafe.getLong。java.nio.Bits.unaligned()不是公开的，这里用同样的方法按os.arch判断
+    static final boolean UNALIGNED = unaligned();
+
+    private static boolean unaligned() {
+        String arch = AccessController.doPrivileged(new GetPropertyAction("os.arch"));
+        return arch.equals("i386") || arch.equals("x86") || arch.equals("amd64")
+            || arch.equals("x86_64") || arch.equals("ppc64") || arch.equals("ppc64le");
+    }
+
+    private final Object lock;
+    private final Charset cs;
+    private final int kind;
+    private final InputStream in;
+
+    // in是BufferedInputStream时不为null，直接解码它的缓冲区
+    private final BufferedInputStream bin;
+
+    // 字节缓冲区，[bpos, blim)是还没有解码的字节。
+    // 自己的缓冲区取自CoderCache，close()时归还；bin不为null时，读取期间指向bin.buf中的[pos, count)
+    private byte[] bb;
+    private int bpos;
+    private int blim;
+
+    // [bpos, blim)是一个被截断的多字节序列，需要读入更多字节
+    private boolean partial;
+
+    // UTF-8多字节序列用的解码器，用到时才从CoderCache中取出
+    private CharsetDecoder decoder;
+
+    // 调用方只剩一个位置、却解码出一个代理对时，第二个char留到下次
+    private boolean haveLeftover;
+    private char leftover;
+
+    private boolean closed;
+
+    // 是否支持编码cs
+    static boolean supports(Charset cs) {
+        return kindOf(cs) >= 0;
+    }
+
+    private static int kindOf(Charset cs) {
+        switch (cs.name()) {
+        case "ISO-8859-1":
+            return LATIN1;
+        case "US-ASCII":
+            return ASCII;
+        case "UTF-8":
+            return UTF8;
+        default:
+            return -1;
+        }
+    }
+
+    // 从in中读取，用编码cs(必须是supports()的编码)解码，读写时同步在lock上
+    FastDecoder(InputStream in, Object lock, Charset cs) {
+        this.in = in;
+        this.lock = lock;
+        this.cs = cs;
+        this.kind = kindOf(cs);
+        if (in.getClass() == BufferedInputStream.class) {
+            this.bin = (BufferedInputStream)in;
+        } else {
+            this.bin = null;
+            this.bb = CoderCache.bytes(DEFAULT_BYTE_BUFFER_SIZE);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+
+    // 与StreamDecoder一样，返回编码的历史名称(例如"UTF8")，关闭后返回null
+    String getEncoding() {
+        if (closed)
+            return null;
+        if (cs instanceof HistoricallyNamedCharset)
+            return ((HistoricallyNamedCharset)cs).historicalName();
+        return cs.name();
+    }
+
+    // 读取一个字符
+    int read() throws IOException {
+        char[] cb = new char[1];
+        return (read(cb, 0, 1) < 0) ? -1 : cb[0];
+    }
+
+    // 读取字符到cbuf中：至少读1个字符(必要时阻塞)，已经读到字符后，只在不会阻塞时继续读入字节
+    int read(char cbuf[], int off, int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if ((off < 0) || (off > cbuf.length) || (len < 0) ||
+                ((off + len) > cbuf.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0)
+                return 0;
+
+            int n = 0;
+            if (haveLeftover) {
+                cbuf[off] = leftover;
+                haveLeftover = false;
+                n = 1;
+            }
+            if (bin == null) {
+                return read0(cbuf, off, len, n);
+            }
+            synchronized (bin) {
+                loadWindow();
+                try {
+                    return read0(cbuf, off, len, n);
+                } finally {
+                    storeWindow();
+                }
+            }
+        }
+    }
+
+    // read(char[],int,int)的实现，已经读了n个字符。调用方持有lock(以及bin的锁)
+    private int read0(char cbuf[], int off, int len, int n) throws IOException {
+        while (n < len) {
+            if (bpos < blim && !partial) {
+                n += decode(cbuf, off + n, len - n);
+                continue;
+            }
+            // 字节用完了(或者只剩被截断的序列)
+            if (n > 0 && !inReady())
+                break;
+            if (!fill()) {
+                if (bpos < blim) {
+                    // 输入在多字节序列中间结束：这个不完整的序列替换成一个'�'
+                    bpos = blim;
+                    partial = false;
+                    cbuf[off + n++] = REPLACEMENT;
+                }
+                break;
+            }
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+    // 把bin缓冲区中未读的字节作为[bpos, blim)。调用方持有bin的锁
+    private void loadWindow() throws IOException {
+        byte[] buf = bin.buf;
+        if (buf == null)
+            throw new IOException("Stream closed");
+        bb = buf;
+        bpos = bin.pos;
+        blim = bin.count;
+    }
+
+    // 把已经解码的字节从bin的缓冲区中消耗掉。调用方持有bin的锁
+    private void storeWindow() {
+        if (bb != null && bb == bin.buf) {
+            bin.pos = bpos;
+        }
+        bb = null;
+    }
+
+    // 不阻塞就能读取字符
+    boolean ready() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (bin != null)
+                return haveLeftover || inReady();
+            return haveLeftover || (bpos < blim && !partial) || inReady();
+        }
+    }
+
+    void close() throws IOException {
+        synchronized (lock) {
+            if (closed)
+                return;
+            in.close();
+            closed = true;
+            // 缓冲区和解码器不会再被使用，归还给当前线程的缓存
+            if (bin == null)
+                CoderCache.release(bb);
+            bb = null;
+            if (decoder != null) {
+                CoderCache.release(decoder);
+                decoder = null;
+            }
+        }
+    }
+
+    private boolean inReady() {
+        try {
+            if (bin != null && bb != null) {
+                // 读取期间bin中未读的字节都已经在[bpos, blim)中了，只看它下面的流
+                InputStream input = bin.in;
+                return input != null && input.available() > 0;
+            }
+            return in.available() > 0;
+        } catch (IOException x) {
+            return false;
+        }
+    }
+
+    // 把剩下的字节移到缓冲区开头，再读入更多字节。返回false表示EOF
+    private boolean fill() throws IOException {
+        if (bin != null) {
+            // 在bin的缓冲区中补齐：至少比现在多一个字节
+            int need = blim - bpos + 1;
+            storeWindow();
+            int r = bin.ensureBuffered(need);
+            loadWindow();
+            if (r < need)
+                return false;
+            partial = false;
+            return true;
+        }
+        if (bpos > 0) {
+            System.arraycopy(bb, bpos, bb, 0, blim - bpos);
+            blim -= bpos;
+            bpos = 0;
+        }
+        int r;
+        do {
+            r = in.read(bb, blim, bb.length - blim);
+        } while (r == 0);
+        if (r < 0)
+            return false;
+        blim += r;
+        partial = false;
+        return true;
+    }
+
+    // 把[bpos, blim)解码到cbuf中，直到字节用完、cbuf满或者遇到被截断的序列，返回解码的字符数
+    private int decode(char cbuf[], int off, int len) {
+        int sp = bpos;
+        int sl = blim;
+        int dp = off;
+        int dl = off + len;
+        if (kind == LATIN1) {
+            int n = Math.min(sl - sp, dl - dp);
+            for (int i = 0; i < n; i++) {
+                cbuf[dp + i] = (char)(bb[sp + i] & 0xFF);
+            }
+            bpos = sp + n;
+            return n;
+        }
+        while (sp < sl && dp < dl) {
+            if (!UNALIGNED) {
+                // 逐个字节走到8字节对齐的地址
+                while (((BYTE_ARRAY_OFFSET + sp) & 7) != 0 && sp < sl && dp < dl && bb[sp] >= 0) {
+                    cbuf[dp++] = (char)bb[sp++];
+                }
+            }
+            // 8个字节一组地判断是否都是ASCII。对齐的地址每次加8，之后一直是对齐的
+            while (sp + 8 <= sl && dp + 8 <= dl
+                   && (UNALIGNED || ((BYTE_ARRAY_OFFSET + sp) & 7) == 0)) {
+                long w = unsafe.getLong(bb, BYTE_ARRAY_OFFSET + sp);
+                if ((w & NON_ASCII_MASK) != 0)
+                    break;
+                for (int i = 0; i < 8; i++) {
+                    cbuf[dp + i] = (char)bb[sp + i];
+                }
+                sp += 8;
+                dp += 8;
+            }
+            while (sp < sl && dp < dl && bb[sp] >= 0) {
+                cbuf[dp++] = (char)bb[sp++];
+            }
+            if (sp == sl || dp == dl)
+                break;
+
+            // bb[sp]不是ASCII
+            if (kind == ASCII) {
+                cbuf[dp++] = REPLACEMENT;
+                sp++;
+                continue;
+            }
+            // 找到这一段非ASCII字节的结尾。UTF-8的后续字节都 >= 0x80，所以其后的ASCII字节一定是字符的开头；
+            // 把这个ASCII字节也交给解码器，这样被它截断的序列会被当作非法序列替换，而不是等待更多字节
+            int j = sp + 1;
+            while (j < sl && bb[j] < 0) {
+                j++;
+            }
+            int end = (j < sl) ? j + 1 : sl;
+            ByteBuffer src = ByteBuffer.wrap(bb, sp, end - sp);
+            CharBuffer dst = CharBuffer.wrap(cbuf, dp, dl - dp);
+            CoderResult cr = decoder().decode(src, dst, false);
+            sp = src.position();
+            dp = dst.position();
+            if (cr.isOverflow()) {
+                if (dp < dl) {
+                    // 只剩一个位置，放不下代理对：解码到临时数组，第二个char留到下次
+                    char[] pair = new char[2];
+                    CharBuffer pb = CharBuffer.wrap(pair);
+                    decoder.decode(src, pb, false);
+                    sp = src.position();
+                    cbuf[dp++] = pair[0];
+                    if (pb.position() == 2) {
+                        leftover = pair[1];
+                        haveLeftover = true;
+                    }
+                }
+                break;
+            }
+            if (src.hasRemaining()) {
+                // 缓冲区末尾的序列被截断了
+                partial = true;
+                break;
+            }
+        }
+        bpos = sp;
+        return dp - off;
+    }
+
+    private CharsetDecoder decoder() {
+        if (decoder == null) {
+            decoder = CoderCache.decoder(cs);
+        }
+        return decoder;
+    }
+}
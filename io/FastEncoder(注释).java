@@ -0,0 +1,239 @@
+package java.io;
+
+import java.nio.charset.Charset;
+import sun.misc.Unsafe;
+import sun.nio.cs.HistoricallyNamedCharset;
+
+/*
+FastEncoder OutputStreamWriter针对UTF-8、US-ASCII的直接编码
+	StreamEncoder先把字符编码到自己的字节缓冲区，再write()给下游；
+	下游是BufferedOutputStream时，这些字节又被复制到BufferedOutputStream.buf中。
+	这里向BufferedOutputStream租用buf中的一段空间(lease)，把字符直接编码进去，再提交(commit)，
+	少一次复制，也不需要自己的字节缓冲区。
+		ASCII字符：一次读4个char(一个long)，用 (w & 0xFF80FF80FF80FF80L) == 0 判断是否都是ASCII，是就整体截成字节
+		其它字符：UTF-8按2~4个字节编码；US-ASCII输出'?'
+	错误处理与StreamEncoder一样：不成对的代理字符、无法编码的字符都替换成'?'。
+	高代理字符在一次write()的末尾时，先保留下来，与下一次write()的第一个字符组成代理对。
+
+	只用于正好是BufferedOutputStream类的下游(子类可能重写了write)，
+	编码期间持有BufferedOutputStream的锁，与它自己的write()互斥。
+*/
+final class FastEncoder {
+
+    // 一个字符最多编码成4个字节(代理对)
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    // 下游缓冲区至少要有这么大，才走直接编码
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    // 4个char中任意一个 >= 0x80，就不全是ASCII
+    private static final long NON_ASCII_MASK = 0xFF80FF80FF80FF80L;
+
+    private static final byte REPLACEMENT = (byte)'?';
+
+    // write(String)时每次取出的字符数
+    private static final int STRING_CHUNK = 1024;
+
+    private static final Unsafe unsafe = Unsafe.getUnsafe();
+    private static final long CHAR_ARRAY_OFFSET = unsafe.arrayBaseOffset(char[].class);
+
+    private final BufferedOutputStream out;
+    private final Charset cs;
+    private final boolean utf8;
+
+    // 上一次write()末尾的高代理字符
+    private boolean haveHigh;
+    private char high;
+
+    // write(String)用的临时数组，取自CoderCache，close()时归还
+    private char[] cb;
+
+    private boolean closed;
+
+    // 能否对下游out使用编码cs直接编码
+    static boolean supports(OutputStream out, Charset cs) {
+        if (out.getClass() != BufferedOutputStream.class) {
+            return false;
+        }
+        if (((BufferedOutputStream)out).buf.length < MIN_BUFFER_SIZE) {
+            return false;
+        }
+        String name = cs.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII");
+    }
+
+    // out和cs必须满足supports()
+    FastEncoder(OutputStream out, Charset cs) {
+        this.out = (BufferedOutputStream)out;
+        this.cs = cs;
+        this.utf8 = cs.name().equals("UTF-8");
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+
+    // 与StreamEncoder一样，返回编码的历史名称(例如"UTF8")，关闭后返回null
+    String getEncoding() {
+        if (closed)
+            return null;
+        if (cs instanceof HistoricallyNamedCharset)
+            return ((HistoricallyNamedCharset)cs).historicalName();
+        return cs.name();
+    }
+
+    void write(int c) throws IOException {
+        char[] cbuf = { (char)c };
+        write(cbuf, 0, 1);
+    }
+
+    void write(String str, int off, int len) throws IOException {
+        if (len < 0)
+            throw new IndexOutOfBoundsException();
+        synchronized (out) {
+            ensureOpen();
+            if (cb == null)
+                cb = CoderCache.chars(STRING_CHUNK);
+            while (len > 0) {
+                int n = Math.min(len, cb.length);
+                str.getChars(off, off + n, cb, 0);
+                write(cb, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    // 把cbuf中从off开始的len个字符直接编码到下游的缓冲区中
+    void write(char cbuf[], int off, int len) throws IOException {
+        synchronized (out) {
+            ensureOpen();
+            if ((off < 0) || (off > cbuf.length) || (len < 0) ||
+                ((off + len) > cbuf.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            int sp = off;
+            int sl = off + len;
+            while (sp < sl) {
+                int dp = out.lease(MAX_BYTES_PER_CHAR);
+                byte[] buf = out.buf;
+                int dl = buf.length;
+                if (haveHigh) {
+                    // 与上次留下的高代理字符组成代理对
+                    haveHigh = false;
+                    if (Character.isLowSurrogate(cbuf[sp])) {
+                        dp = encodePair(high, cbuf[sp++], buf, dp);
+                    } else {
+                        buf[dp++] = REPLACEMENT;
+                    }
+                }
+
+                // ASCII字符：先4个一组，再逐个。
+                // 不支持非对齐访问的平台上，先逐个走到8字节对齐的地址(见FastDecoder.UNALIGNED)
+                int lim = sp + Math.min(sl - sp, dl - dp);
+                if (!FastDecoder.UNALIGNED) {
+                    while (((CHAR_ARRAY_OFFSET + ((long)sp << 1)) & 7) != 0
+                           && sp < lim && cbuf[sp] < 0x80) {
+                        buf[dp++] = (byte)cbuf[sp++];
+                    }
+                }
+                while (sp + 4 <= lim
+                       && (FastDecoder.UNALIGNED || ((CHAR_ARRAY_OFFSET + ((long)sp << 1)) & 7) == 0)) {
+                    long w = unsafe.getLong(cbuf, CHAR_ARRAY_OFFSET + ((long)sp << 1));
+                    if ((w & NON_ASCII_MASK) != 0)
+                        break;
+                    buf[dp] = (byte)cbuf[sp];
+                    buf[dp + 1] = (byte)cbuf[sp + 1];
+                    buf[dp + 2] = (byte)cbuf[sp + 2];
+                    buf[dp + 3] = (byte)cbuf[sp + 3];
+                    sp += 4;
+                    dp += 4;
+                }
+                while (sp < lim && cbuf[sp] < 0x80) {
+                    buf[dp++] = (byte)cbuf[sp++];
+                }
+
+                // 其它字符：保证每个字符都有MAX_BYTES_PER_CHAR个字节的空间，遇到ASCII字符就回到上面
+                while (sp < sl && dl - dp >= MAX_BYTES_PER_CHAR) {
+                    char c = cbuf[sp];
+                    if (c < 0x80)
+                        break;
+                    sp++;
+                    if (Character.isHighSurrogate(c)) {
+                        if (sp == sl) {
+                            // 低代理字符在下一次write()中
+                            high = c;
+                            haveHigh = true;
+                        } else if (Character.isLowSurrogate(cbuf[sp])) {
+                            dp = encodePair(c, cbuf[sp++], buf, dp);
+                        } else {
+                            buf[dp++] = REPLACEMENT;
+                        }
+                    } else if (!utf8 || Character.isLowSurrogate(c)) {
+                        buf[dp++] = REPLACEMENT;
+                    } else if (c < 0x800) {
+                        buf[dp++] = (byte)(0xC0 | (c >> 6));
+                        buf[dp++] = (byte)(0x80 | (c & 0x3F));
+                    } else {
+                        buf[dp++] = (byte)(0xE0 | (c >> 12));
+                        buf[dp++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                        buf[dp++] = (byte)(0x80 | (c & 0x3F));
+                    }
+                }
+                out.commit(dp);
+            }
+        }
+    }
+
+    // 编码代理对hi、lo，返回新的写入位置
+    private int encodePair(char hi, char lo, byte[] buf, int dp) {
+        if (!utf8) {
+            buf[dp++] = REPLACEMENT;
+            return dp;
+        }
+        int cp = Character.toCodePoint(hi, lo);
+        buf[dp++] = (byte)(0xF0 | (cp >> 18));
+        buf[dp++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        buf[dp++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        buf[dp++] = (byte)(0x80 | (cp & 0x3F));
+        return dp;
+    }
+
+    // 字节已经在下游的缓冲区中，没有需要写出的
+    void flushBuffer() throws IOException {
+        synchronized (out) {
+            ensureOpen();
+        }
+    }
+
+    void flush() throws IOException {
+        synchronized (out) {
+            ensureOpen();
+            out.flush();
+        }
+    }
+
+    // 关闭：末尾不成对的高代理字符替换成'?'，然后关闭下游
+    void close() throws IOException {
+        synchronized (out) {
+            if (closed)
+                return;
+            try {
+                if (haveHigh) {
+                    haveHigh = false;
+                    int dp = out.lease(1);
+                    out.buf[dp++] = REPLACEMENT;
+                    out.commit(dp);
+                }
+                out.close();
+            } finally {
+                closed = true;
+                if (cb != null) {
+                    CoderCache.release(cb);
+                    cb = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+FileDescriptorCache 打开文件描述符的缓存
+	反复 new FileInputStream(path) 同一批热点文件时，
+	每次都要付出native open(name)和close0()的代价。
+	这里按路径缓存已经打开的描述符，多个FileInputStream共享一个描述符：
+		每个流有自己的读取位置，读取时把共享描述符的文件位置移到那里再读，互不影响
+		(不用FileChannel的定位读：它在读线程被中断时会关闭通道，连同所有流共享的描述符)
+		流的getChannel()返回只读的视图通道，同样使用这个流自己的读取位置，关闭它只关闭这个流
+		引用计数：缓存本身持有一个引用，每个打开的流持有一个引用，引用为0时才真正关闭
+		LRU淘汰：缓存中的描述符超过maxOpen个时，淘汰最久没用的
+		变化检测：文件被替换(inode变化)或删除后，旧的描述符作废，重新打开；
+		          描述符已经被关闭(例如视图通道的map、transferTo被中断)时也重新打开
+*/
+public final class FileDescriptorCache {
+
+    // 缓存中最多保留的描述符个数
+    private final int maxOpen;
+
+    // 两次检查文件是否变化的最小间隔(纳秒)，0表示每次打开都检查
+    private final long revalidateNanos;
+
+    // 按访问顺序排序的LinkedHashMap，最久没用的在最前面
+    private final LinkedHashMap<String, Entry> entries;
+
+    // 引用已经为0、等待关闭的描述符。受entries的锁保护，由closeReleased()在锁外关闭
+    private final ArrayList<Entry> closing = new ArrayList<Entry>();
+
+    // 构造函数：最多缓存maxOpen个描述符，每次打开都检查文件是否变化
+    public FileDescriptorCache(int maxOpen) {
+        this(maxOpen, 0);
+    }
+
+    // 构造函数：最多缓存maxOpen个描述符，
+    // 同一文件在revalidateMillis毫秒内不重复检查是否变化
+    public FileDescriptorCache(int maxOpen, long revalidateMillis) {
+        if (maxOpen <= 0) {
+            throw new IllegalArgumentException("maxOpen <= 0");
+        }
+        if (revalidateMillis < 0) {
+            throw new IllegalArgumentException("revalidateMillis < 0");
+        }
+        this.maxOpen = maxOpen;
+        this.revalidateNanos = revalidateMillis * 1000000L;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > FileDescriptorCache.this.maxOpen) {
+                    // 还有流在用时不会立即关闭，等最后一个流关闭时再关闭
+                    release(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // 打开文件name，返回的流与其它打开同一文件的流共享描述符，但读取位置相互独立
+    public FileInputStream open(String name) throws FileNotFoundException {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        return open(new File(name));
+    }
+
+    // 打开文件file，同上
+    public FileInputStream open(File file) throws FileNotFoundException {
+        String name = (file != null ? file.getPath() : null);
+        SecurityManager security = System.getSecurityManager();
+        if (security != null) {
+            security.checkRead(name);//命中缓存也要做安全检查
+        }
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        if (file.isInvalid()) {
+            throw new FileNotFoundException("Invalid file path");
+        }
+        for (;;) {
+            Entry e;
+            synchronized (entries) {
+                e = entries.get(name);
+                if (e != null && !e.isStale(revalidateNanos)) {
+                    e.refs++;
+                    return new CachedFileInputStream(e);
+                }
+                if (e != null) {
+                    entries.remove(name);
+                    release(e);
+                }
+            }
+            closeReleased();
+            // 在锁外打开文件，避免一个慢的open阻塞其它路径的打开
+            Entry opened = Entry.open(name);
+            CachedFileInputStream in = null;
+            synchronized (entries) {
+                if (entries.get(name) == null) {
+                    opened.refs++;
+                    entries.put(name, opened);//可能淘汰最久没用的描述符
+                    in = new CachedFileInputStream(opened);
+                } else {
+                    release(opened);//其它线程抢先放进去了，用它的
+                }
+            }
+            closeReleased();
+            if (in != null) {
+                return in;
+            }
+        }
+    }
+
+    // 释放e的一个引用。调用方持有entries的锁；
+    // 引用为0的描述符只是记下来，由closeReleased()在锁外关闭
+    private void release(Entry e) {
+        if (--e.refs == 0) {
+            closing.add(e);
+        }
+    }
+
+    // 关闭引用已经为0的描述符。close0可能很慢(例如网络文件系统)，不能在entries的锁内调用，
+    // 否则会挡住所有路径的打开
+    private void closeReleased() {
+        Entry[] toClose;
+        synchronized (entries) {
+            if (closing.isEmpty()) {
+                return;
+            }
+            toClose = closing.toArray(new Entry[closing.size()]);
+            closing.clear();
+        }
+        for (Entry e : toClose) {
+            e.close();
+        }
+    }
+
+    // 使路径name对应的描述符作废，下次打开时重新open
+    public void invalidate(String name) {
+        synchronized (entries) {
+            Entry e = entries.remove(name);
+            if (e != null) {
+                release(e);
+            }
+        }
+        closeReleased();
+    }
+
+    // 清空缓存。已经打开的流不受影响，它们关闭时才关闭对应的描述符
+    public void clear() {
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                it.remove();
+                release(e);
+            }
+        }
+        closeReleased();
+    }
+
+    // 缓存中的描述符个数
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    // 缓存项：一个真正打开的描述符
+    private static final class Entry {
+        final String path;
+        // 持有描述符的FileInputStream，只有它会关闭描述符
+        final FileInputStream owner;
+        final FileDescriptor fd;
+        // 打开时文件的标识(Unix上是设备号+inode)，用来发现文件被替换
+        final Object fileKey;
+        final long lastModified;
+        long checkedAt;
+        // 引用计数：缓存1个 + 每个没关闭的流1个。受entries的锁保护
+        int refs;
+        // 描述符当前的文件位置(owner的读取位置)。受Entry的锁保护
+        private long fdPosition;
+
+        private Entry(String path, FileInputStream owner, FileDescriptor fd,
+                      Object fileKey, long lastModified) {
+            this.path = path;
+            this.owner = owner;
+            this.fd = fd;
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+            this.checkedAt = System.nanoTime();
+            this.refs = 1;
+        }
+
+        static Entry open(String path) throws FileNotFoundException {
+            FileInputStream fis = new FileInputStream(path);
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+                return new Entry(path, fis, fis.getFD(), attrs.fileKey(),
+                                 attrs.lastModifiedTime().toMillis());
+            } catch (IOException x) {
+                closeQuietly(fis);
+                throw new FileNotFoundException(path + " (" + x.getMessage() + ")");
+            }
+        }
+
+        // 文件是否已经变化(被替换或删除)，或者描述符已经被关闭。调用方持有entries的锁
+        boolean isStale(long revalidateNanos) {
+            if (!fd.valid()) {
+                return true;//owner的通道被中断关闭了，描述符也随之关闭
+            }
+            long now = System.nanoTime();
+            if (now - checkedAt < revalidateNanos) {
+                return false;
+            }
+            checkedAt = now;
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+                // 有fileKey时只比较fileKey：定位读总是读到这个inode的最新内容，
+                // 追加写、截断都不需要重新打开；只有路径指向了别的文件才需要
+                if (fileKey != null) {
+                    return !fileKey.equals(attrs.fileKey());
+                }
+                return lastModified != attrs.lastModifiedTime().toMillis();
+            } catch (IOException x) {
+                return true;//文件被删除或者无法访问
+            }
+        }
+
+        // 引用为0之后关闭描述符
+        void close() {
+            closeQuietly(owner);
+        }
+
+        // 共享描述符的FileChannel，只有视图通道的size、transferTo、map和加锁用它。
+        // 它会响应中断：被中断时关闭的是整个描述符，之后isStale()发现并重新打开
+        FileChannel channel() {
+            return owner.getChannel();
+        }
+
+        // 从文件位置pos读取。
+        // FileChannel的定位读会在读线程被中断时关闭通道和共享的描述符，所以不用它；
+        // JDK 8的libjava也没有可以从这里调用的pread。这里用owner的skip(lseek)移到pos再read，
+        // native的read不响应中断。同一描述符上的读取以Entry为锁串行，
+        // 顺序读时文件位置已经在pos，不需要lseek
+        synchronized int read(FileInputStream caller, byte[] b, int off, int len, long pos)
+            throws IOException
+        {
+            seek(caller, pos);
+            int n = owner.read(b, off, len);
+            if (n > 0) {
+                fdPosition += n;
+            }
+            return n;
+        }
+
+        // 读取文件位置pos处的一个字节，-1表示文件末尾
+        synchronized int read(FileInputStream caller, long pos) throws IOException {
+            seek(caller, pos);
+            int c = owner.read();
+            if (c >= 0) {
+                fdPosition++;
+            }
+            return c;
+        }
+
+        // 读到缓冲区bb中，并推进bb的position。没有数组的缓冲区经过一个临时数组
+        int read(FileInputStream caller, ByteBuffer bb, long pos) throws IOException {
+            if (bb.isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+            if (bb.hasArray()) {
+                int n = read(caller, bb.array(), bb.arrayOffset() + bb.position(),
+                             bb.remaining(), pos);
+                if (n > 0) {
+                    bb.position(bb.position() + n);
+                }
+                return n;
+            }
+            byte[] tmp = new byte[Math.min(bb.remaining(), 8192)];
+            int n = read(caller, tmp, 0, tmp.length, pos);
+            if (n > 0) {
+                bb.put(tmp, 0, n);
+            }
+            return n;
+        }
+
+        // 从文件位置pos起还可以读的字节数
+        synchronized int available(FileInputStream caller, long pos) throws IOException {
+            seek(caller, pos);
+            return owner.available();
+        }
+
+        // 把owner的文件位置移到pos，并把接下来的native调用记到caller的统计名下(包括tag())
+        private void seek(FileInputStream caller, long pos) throws IOException {
+            if (FileIOStats.enabled) {
+                owner.setStats(caller.stats());
+            }
+            if (pos != fdPosition) {
+                fdPosition += owner.skip(pos - fdPosition);//lseek(SEEK_CUR)，可以向回
+            }
+        }
+
+        private static void closeQuietly(FileInputStream fis) {
+            try {
+                fis.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // 共享描述符的FileInputStream：自己维护读取位置，用定位读读取，不改变描述符的文件位置
+    private final class CachedFileInputStream extends FileInputStream {
+        private final Entry entry;
+        private long position;
+        private final Object closeLock = new Object();
+        private volatile boolean closed;
+        private ViewChannel channel;
+
+        CachedFileInputStream(Entry entry) {
+            super(entry.fd, entry.path);
+            this.entry = entry;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream Closed");
+            }
+        }
+
+        public synchronized int read() throws IOException {
+            ensureOpen();
+            int c = entry.read(this, position);
+            if (c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        public int read(byte b[]) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        public synchronized int read(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            ensureOpen();
+            if (len == 0) {
+                return 0;
+            }
+            int n = entry.read(this, b, off, len, position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        // 共享描述符上没有定位的readv，逐个数组读取，保持各个流的位置互不影响
+        public long read(byte[][] bufs) throws IOException {
+            ByteBuffer[] dsts = new ByteBuffer[bufs.length];
+            for (int i = 0; i < bufs.length; i++) {
+                dsts[i] = ByteBuffer.wrap(bufs[i]);
+            }
+            return read(dsts);
+        }
+
+        public synchronized long read(ByteBuffer[] dsts) throws IOException {
+            ensureOpen();
+            long total = 0;
+            for (ByteBuffer bb : dsts) {
+                if (bb.isReadOnly()) {
+                    throw new IllegalArgumentException("Read-only buffer");
+                }
+                while (bb.hasRemaining()) {
+                    int n = entry.read(this, bb, position);
+                    if (n <= 0) {
+                        return (total == 0 && n < 0) ? -1 : total;
+                    }
+                    position += n;
+                    total += n;
+                }
+            }
+            return total;
+        }
+
+        // 与FileInputStream.skip一样，可以跳过文件末尾，也可以向回跳
+        public synchronized long skip(long n) throws IOException {
+            ensureOpen();
+            long newPosition = position + n;
+            if (newPosition < 0) {
+                throw new IOException("Negative seek offset");
+            }
+            position = newPosition;
+            return n;
+        }
+
+        public synchronized int available() throws IOException {
+            ensureOpen();
+            return entry.available(this, position);
+        }
+
+        public void advise(long offset, long len, AccessHint hint) throws IOException {
+            ensureOpen();
+            super.advise(offset, len, hint);
+        }
+
+        // 共享的描述符不能直接交给调用方(关闭通道会把描述符也关掉)，
+        // 返回的是读写这个流的读取位置的视图通道，关闭它等于关闭这个流
+        public FileChannel getChannel() {
+            synchronized (this) {
+                if (channel == null) {
+                    channel = new ViewChannel(this);
+                }
+                return channel;
+            }
+        }
+
+        // 只释放引用，不关闭描述符
+        public void close() throws IOException {
+            synchronized (closeLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            ViewChannel vc;
+            synchronized (this) {
+                vc = channel;
+            }
+            if (vc != null) {
+                vc.close();//会再调用close()，此时closed已经是true
+            }
+            synchronized (entries) {
+                release(entry);
+            }
+            closeReleased();
+        }
+    }
+
+    // CachedFileInputStream的通道：只读，读取位置就是流的读取位置(以流为锁)，
+    // 读取和流一样经过Entry，不响应中断；size、transferTo、map和加锁用共享描述符的FileChannel
+    private static final class ViewChannel extends FileChannel {
+        private final CachedFileInputStream stream;
+        private final Entry entry;
+
+        ViewChannel(CachedFileInputStream stream) {
+            this.stream = stream;
+            this.entry = stream.entry;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            synchronized (stream) {
+                int n = entry.read(stream, dst, stream.position);
+                if (n > 0) {
+                    stream.position += n;
+                }
+                return n;
+            }
+        }
+
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset > dsts.length - length) {
+                throw new IndexOutOfBoundsException();
+            }
+            ensureOpen();
+            synchronized (stream) {
+                long total = 0;
+                for (int i = offset; i < offset + length; i++) {
+                    ByteBuffer bb = dsts[i];
+                    while (bb.hasRemaining()) {
+                        int n = entry.read(stream, bb, stream.position);
+                        if (n <= 0) {
+                            return (total == 0 && n < 0) ? -1 : total;
+                        }
+                        stream.position += n;
+                        total += n;
+                    }
+                }
+                return total;
+            }
+        }
+
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new NonWritableChannelException();
+        }
+
+        public long position() throws IOException {
+            ensureOpen();
+            synchronized (stream) {
+                return stream.position;
+            }
+        }
+
+        public FileChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException();
+            }
+            ensureOpen();
+            synchronized (stream) {
+                stream.position = newPosition;
+            }
+            return this;
+        }
+
+        public long size() throws IOException {
+            ensureOpen();
+            return entry.channel().size();
+        }
+
+        public FileChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        public void force(boolean metaData) throws IOException {
+            ensureOpen();
+        }
+
+        public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException
+        {
+            ensureOpen();
+            return entry.channel().transferTo(position, count, target);
+        }
+
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new NonWritableChannelException();
+        }
+
+        public int read(ByteBuffer dst, long position) throws IOException {
+            ensureOpen();
+            return entry.read(stream, dst, position);
+        }
+
+        public int write(ByteBuffer src, long position) {
+            throw new NonWritableChannelException();
+        }
+
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+            throws IOException
+        {
+            ensureOpen();
+            if (mode != MapMode.READ_ONLY) {
+                throw new NonWritableChannelException();
+            }
+            return entry.channel().map(mode, position, size);
+        }
+
+        // 文件锁属于整个描述符，与FileInputStream的通道一样只能加共享锁
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            ensureOpen();
+            if (!shared) {
+                throw new NonWritableChannelException();
+            }
+            return entry.channel().lock(position, size, true);
+        }
+
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            ensureOpen();
+            if (!shared) {
+                throw new NonWritableChannelException();
+            }
+            return entry.channel().tryLock(position, size, true);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        // 关闭通道就是关闭流(只释放引用)
+        protected void implCloseChannel() throws IOException {
+            stream.close();
+        }
+    }
+}
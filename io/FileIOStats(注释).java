@@ -0,0 +1,368 @@
+package java.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/*
+FileIOStats FileInputStream/FileOutputStream的native调用耗时统计
+	默认关闭，关闭时每次调用只多一次volatile读。
+	打开后(enable())，每次native调用(read0、readBytes、writeBytes、skip、available、close0等)
+	都记录：调用次数、传输的字节数、耗时直方图。
+	统计按文件路径归类；用FileDescriptor创建的流没有路径，归到"fd"下，
+	也可以用tag()给某个流指定一个名字(例如"audit-log")。
+	每个路径的记录器有9个直方图(约70KB)，所以最多保留maxKeys个(默认256，
+	系统属性java.io.FileIOStats.maxKeys)，之后新出现的路径都归到"other"下，
+	打开大量不同文件的程序不会无限制地占用内存。
+	结果可以通过snapshot()在程序中获取，也可以通过JMX(java.io:type=FileIOStats)查看。
+
+	直方图参考HdrHistogram的做法：按2的幂分段，每段再线性分成16个小桶，
+	所以任何值的相对误差都不超过1/16，桶的个数是固定的，记录只需一次原子加。
+*/
+public final class FileIOStats {
+
+    // 被统计的操作，对应FileInputStream/FileOutputStream中的native方法
+    public enum Op {
+        READ,           // read0
+        READ_BYTES,     // readBytes
+        READ_VECTOR,    // read(byte[][])、read(ByteBuffer[])：通道的readv
+        WRITE,          // write(int, boolean)
+        WRITE_BYTES,    // writeBytes
+        WRITE_VECTOR,   // write(byte[][])、write(ByteBuffer[])：通道的writev
+        SKIP,           // skip0
+        AVAILABLE,      // available0
+        CLOSE           // close0
+    }
+
+    // 没有路径的流(用FileDescriptor创建)归到这个名字下
+    static final String NO_PATH = "fd";
+
+    // 记录器个数达到上限之后，新的路径归到这个名字下
+    static final String OVERFLOW = "other";
+
+    // 最多保留的记录器个数(不包括OVERFLOW)
+    private static final int MAX_KEYS = maxKeys();
+
+    private static final String OBJECT_NAME = "java.io:type=FileIOStats";
+
+    // 是否打开统计。FileInputStream/FileOutputStream每次调用前读取
+    static volatile boolean enabled;
+
+    private static final ConcurrentHashMap<String, Recorder> recorders =
+        new ConcurrentHashMap<String, Recorder>();
+
+    private static boolean registered;
+
+    private FileIOStats() {
+    }
+
+    // 打开统计，并注册MXBean
+    public static void enable() {
+        enabled = true;
+        registerMXBean();
+    }
+
+    // 关闭统计。已经记录的数据保留
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // 清空所有已经记录的数据。
+    // 流会缓存自己的记录器，所以这里只清零，不删除记录器
+    public static void reset() {
+        for (Recorder r : recorders.values()) {
+            r.reset();
+        }
+    }
+
+    // 给流in指定统计用的名字，代替文件路径
+    public static void tag(FileInputStream in, String tag) {
+        in.setStats(recorder(tag));
+    }
+
+    // 给流out指定统计用的名字，代替文件路径
+    public static void tag(FileOutputStream out, String tag) {
+        out.setStats(recorder(tag));
+    }
+
+    // 已经有统计数据的路径或名字
+    public static String[] keys() {
+        return recorders.keySet().toArray(new String[0]);
+    }
+
+    // 路径或名字key下，操作op的统计快照；没有数据时返回null
+    public static Snapshot snapshot(String key, Op op) {
+        Recorder r = recorders.get(key);
+        return (r == null) ? null : r.snapshot(op);
+    }
+
+    // 获取路径或名字key对应的记录器，不存在就新建
+    static Recorder recorder(String key) {
+        if (key == null) {
+            key = NO_PATH;
+        }
+        Recorder r = recorders.get(key);
+        if (r == null) {
+            if (recorders.size() >= MAX_KEYS) {
+                // 并发时可能略微超过上限，不影响内存有界
+                key = OVERFLOW;
+                r = recorders.get(key);
+                if (r != null) {
+                    return r;
+                }
+            }
+            Recorder nr = new Recorder(key);
+            r = recorders.putIfAbsent(key, nr);
+            if (r == null) {
+                r = nr;
+            }
+        }
+        return r;
+    }
+
+    private static int maxKeys() {
+        try {
+            int n = Integer.getInteger("java.io.FileIOStats.maxKeys", 256);
+            return (n > 0) ? n : 256;
+        } catch (SecurityException x) {
+            return 256;
+        }
+    }
+
+    private static synchronized void registerMXBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new MXBeanImpl(), new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (Exception x) {
+            // 没有JMX时只能通过snapshot()获取数据
+        }
+    }
+
+    // 一个路径(或名字)下所有操作的统计
+    static final class Recorder {
+        final String key;
+        private final Histogram[] histograms;
+        private final AtomicLongArray bytes;
+
+        Recorder(String key) {
+            this.key = key;
+            Op[] ops = Op.values();
+            histograms = new Histogram[ops.length];
+            for (int i = 0; i < ops.length; i++) {
+                histograms[i] = new Histogram();
+            }
+            bytes = new AtomicLongArray(ops.length);
+        }
+
+        // 记录一次操作：startNanos是调用前System.nanoTime()的值，n是传输的字节数
+        void record(Op op, long startNanos, long n) {
+            histograms[op.ordinal()].record(System.nanoTime() - startNanos);
+            if (n > 0) {
+                bytes.addAndGet(op.ordinal(), n);
+            }
+        }
+
+        Snapshot snapshot(Op op) {
+            return histograms[op.ordinal()].snapshot(bytes.get(op.ordinal()));
+        }
+
+        void reset() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i].reset();
+                bytes.set(i, 0);
+            }
+        }
+    }
+
+    // 直方图。这里记录耗时(纳秒)；分桶与单位无关，PipeStats也用它记录字节数
+    static final class Histogram {
+        // 每个2的幂分段内的小桶个数 = 2^SUB_BITS
+        static final int SUB_BITS = 4;
+        static final int SUB_COUNT = 1 << SUB_BITS;
+        // 0..15单独一段，之后每个2的幂一段，直到2^63
+        static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        // 值v所在的桶
+        static int indexOf(long v) {
+            if (v < SUB_COUNT) {
+                return (int)Math.max(v, 0);
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            int sub = (int)(v >>> shift) & (SUB_COUNT - 1);
+            return (shift + 1) * SUB_COUNT + sub;
+        }
+
+        // 桶index中的最大值
+        static long highestOf(int index) {
+            if (index < SUB_COUNT) {
+                return index;
+            }
+            int shift = index / SUB_COUNT - 1;
+            long sub = index % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << shift) - 1;
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(indexOf(value));
+            total.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value))
+                ;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+            max.set(0);
+        }
+
+        Snapshot snapshot(long bytes) {
+            long[] c = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                c[i] = counts.get(i);
+                n += c[i];
+            }
+            return new Snapshot(c, n, total.get(), max.get(), bytes);
+        }
+    }
+
+    // 某个操作在某一时刻的统计数据(不可变)
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long bytes;
+
+        Snapshot(long[] counts, long count, long totalNanos, long maxNanos,
+                 long bytes) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.bytes = bytes;
+        }
+
+        // 调用次数
+        public long count() {
+            return count;
+        }
+
+        // 传输的字节数
+        public long bytes() {
+            return bytes;
+        }
+
+        // 总耗时
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        // 最大耗时
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        // 耗时的百分位数，例如percentileNanos(99.9)。误差不超过1/16
+        public long percentileNanos(double percentile) {
+            return percentile(percentile);
+        }
+
+        // 与单位无关的读法，给记录的不是耗时的直方图(例如PipeStats中的字节数)用
+        long total() {
+            return totalNanos;
+        }
+
+        long max() {
+            return maxNanos;
+        }
+
+        long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(count * percentile / 100);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.highestOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    // JMX接口
+    public interface FileIOStatsMXBean {
+        boolean isEnabled();
+        void setEnabled(boolean enabled);
+        String[] getKeys();
+        long getCount(String key, String op);
+        long getBytes(String key, String op);
+        // 依次为p50、p90、p99、p99.9和最大耗时(纳秒)
+        long[] getLatencyNanos(String key, String op);
+        void reset();
+    }
+
+    private static final class MXBeanImpl implements FileIOStatsMXBean {
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean on) {
+            enabled = on;
+        }
+
+        public String[] getKeys() {
+            return keys();
+        }
+
+        public long getCount(String key, String op) {
+            Snapshot s = snapshot(key, Op.valueOf(op));
+            return (s == null) ? 0 : s.count();
+        }
+
+        public long getBytes(String key, String op) {
+            Snapshot s = snapshot(key, Op.valueOf(op));
+            return (s == null) ? 0 : s.bytes();
+        }
+
+        public long[] getLatencyNanos(String key, String op) {
+            Snapshot s = snapshot(key, Op.valueOf(op));
+            if (s == null) {
+                return new long[5];
+            }
+            return new long[] { s.percentileNanos(50), s.percentileNanos(90),
+                                s.percentileNanos(99), s.percentileNanos(99.9),
+                                s.maxNanos() };
+        }
+
+        public void reset() {
+            FileIOStats.reset();
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package java.io;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import sun.nio.ch.FileChannelImpl;
 
@@ -62,6 +63,9 @@ class FileInputStream extends InputStream
     private final Object closeLock = new Object();
     private volatile boolean closed = false;
 
+    /* Latency recorder, resolved on first use while FileIOStats is enabled */
+    private FileIOStats.Recorder stats;
+
     /**
      * Creates a <code>FileInputStream</code> by
      * opening a connection to an actual file,
@@ -182,11 +186,36 @@ class FileInputStream extends InputStream
         fd.attach(this);//当成Closable对象 加入list中
     }
 
+    /**
+     * Creates a <code>FileInputStream</code> over a file descriptor that is
+     * owned by another stream, such as an entry of a
+     * {@link FileDescriptorCache}. The new stream is not attached to
+     * <code>fdObj</code>, so the owner alone decides when the descriptor
+     * is closed; subclasses must override {@link #close()} accordingly.
+     *
+     * @param      fdObj   the shared file descriptor.
+     * @param      path    the path the descriptor was opened with.
+     */
+    FileInputStream(FileDescriptor fdObj, String path) {
+        fd = fdObj;
+        this.path = path;
+        //不调用fd.attach(this) 否则每次打开都会往fd的list里加一个对象
+    }
+
     /**
      * Opens the specified file for reading.
      * @param name the name of the file
      */
-    private native void open(String name) throws FileNotFoundException;
+    private native void open0(String name) throws FileNotFoundException;
+
+    // wrap native call to allow instrumentation
+    /**
+     * Opens the specified file for reading.
+     * @param name the name of the file
+     */
+    private void open(String name) throws FileNotFoundException {
+        open0(name);
+    }
 
     /**
      * Reads a byte of data from this input stream. This method blocks
@@ -197,7 +226,17 @@ class FileInputStream extends InputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public int read() throws IOException {
-        return read0();
+        Object event = IOEvents.begin(IOEvents.FILE_READ);
+        if (!FileIOStats.enabled) {
+            int b = read0();
+            IOEvents.endFileRead(event, path, 1, (b < 0) ? -1 : 1);
+            return b;
+        }
+        long start = System.nanoTime();
+        int b = read0();
+        stats().record(FileIOStats.Op.READ, start, (b < 0) ? 0 : 1);
+        IOEvents.endFileRead(event, path, 1, (b < 0) ? -1 : 1);
+        return b;
     }
 
     private native int read0() throws IOException;
@@ -211,6 +250,20 @@ class FileInputStream extends InputStream
      */
     private native int readBytes(byte b[], int off, int len) throws IOException;
 
+    private int timedReadBytes(byte b[], int off, int len) throws IOException {
+        Object event = IOEvents.begin(IOEvents.FILE_READ);
+        if (!FileIOStats.enabled) {
+            int n = readBytes(b, off, len);
+            IOEvents.endFileRead(event, path, len, n);
+            return n;
+        }
+        long start = System.nanoTime();
+        int n = readBytes(b, off, len);
+        stats().record(FileIOStats.Op.READ_BYTES, start, n);
+        IOEvents.endFileRead(event, path, len, n);
+        return n;
+    }
+
     /**
      * Reads up to <code>b.length</code> bytes of data from this input
      * stream into an array of bytes. This method blocks until some input
@@ -223,7 +276,7 @@ class FileInputStream extends InputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public int read(byte b[]) throws IOException {
-        return readBytes(b, 0, b.length);
+        return timedReadBytes(b, 0, b.length);
     }
 
     /**
@@ -245,7 +298,97 @@ class FileInputStream extends InputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public int read(byte b[], int off, int len) throws IOException {
-        return readBytes(b, off, len);
+        return timedReadBytes(b, off, len);
+    }
+
+    private static long remaining(ByteBuffer[] bufs) {
+        long n = 0;
+        for (ByteBuffer bb : bufs) {
+            n += bb.remaining();
+        }
+        return n;
+    }
+
+    /*
+     * The scattering read goes through this stream's channel: on JDK 8
+     * FileChannelImpl already issues one readv for an array of buffers, so
+     * no native of our own is needed.  The channel shares the file
+     * position with this stream.
+     */
+    private long timedReadv(ByteBuffer[] dsts) throws IOException {
+        Object event = IOEvents.begin(IOEvents.FILE_READ);
+        long requested = remaining(dsts);
+        if (!FileIOStats.enabled) {
+            long n = getChannel().read(dsts);
+            IOEvents.endFileRead(event, path, requested, n);
+            return n;
+        }
+        long start = System.nanoTime();
+        long n = getChannel().read(dsts);
+        stats().record(FileIOStats.Op.READ_VECTOR, start, n);
+        IOEvents.endFileRead(event, path, requested, n);
+        return n;
+    }
+
+    /**
+     * Reads bytes from this input stream into a sequence of arrays with a
+     * single scattering read.  The arrays are filled in order: the second
+     * array receives bytes only once the first one is full, and so on.
+     * This method blocks until some input is available.
+     *
+     * <p> A fixed-size header and the payload that follows it can thus be
+     * read into separate arrays without an intermediate copy and with one
+     * system call instead of one per array.
+     *
+     * <p> The read is performed by this stream's {@link #getChannel()
+     * channel}.  As with any channel operation, if the reading thread is
+     * interrupted the channel, and with it this stream, is closed.
+     *
+     * @param      bufs   the buffers into which the data is read.
+     * @return     the total number of bytes read into the buffers, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the file has been reached.
+     * @exception  NullPointerException If <code>bufs</code> or any of its
+     *             elements is <code>null</code>.
+     * @exception  IOException  if an I/O error occurs.
+     * @since 1.8
+     */
+    public long read(byte[][] bufs) throws IOException {
+        ByteBuffer[] dsts = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; i++) {
+            dsts[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        return timedReadv(dsts);
+    }
+
+    /**
+     * Reads bytes from this input stream into a sequence of buffers with a
+     * single scattering read, starting at each buffer's position.  The
+     * buffers are filled in order and their positions are advanced by the
+     * number of bytes read into each.  This method blocks until some input
+     * is available.
+     *
+     * <p> The read is performed by this stream's {@link #getChannel()
+     * channel}.  As with any channel operation, if the reading thread is
+     * interrupted the channel, and with it this stream, is closed.
+     *
+     * @param      dsts   the buffers into which the data is read.
+     * @return     the total number of bytes read into the buffers, or
+     *             <code>-1</code> if there is no more data because the end of
+     *             the file has been reached.
+     * @exception  NullPointerException If <code>dsts</code> or any of its
+     *             elements is <code>null</code>.
+     * @exception  IllegalArgumentException If any of the buffers is read-only.
+     * @exception  IOException  if an I/O error occurs.
+     * @since 1.8
+     */
+    public long read(ByteBuffer[] dsts) throws IOException {
+        for (ByteBuffer bb : dsts) {
+            if (bb.isReadOnly()) {
+                throw new IllegalArgumentException("Read-only buffer");
+            }
+        }
+        return timedReadv(dsts);
     }
 
     /**
@@ -272,7 +415,43 @@ class FileInputStream extends InputStream
      * @exception  IOException  if n is negative, if the stream does not
      *             support seek, or if an I/O error occurs.
      */
-    public native long skip(long n) throws IOException;
+    public long skip(long n) throws IOException {
+        if (!FileIOStats.enabled) {
+            return skipImpl(n);
+        }
+        long start = System.nanoTime();
+        long skipped = skipImpl(n);
+        stats().record(FileIOStats.Op.SKIP, start, 0);
+        return skipped;
+    }
+
+    private native long skip0(long n) throws IOException;
+
+    /*
+     * Whether the native library exports skip0 and available0.  Current
+     * JDK 8 update releases export these names (like open0), but early
+     * JDK 8 builds export them as skip and available.  On such a libjava
+     * both fall back to the channel.
+     */
+    private static volatile boolean seekNativesRenamed = true;
+
+    private long skipImpl(long n) throws IOException {
+        if (seekNativesRenamed) {
+            try {
+                return skip0(n);
+            } catch (UnsatisfiedLinkError e) {
+                seekNativesRenamed = false;
+            }
+        }
+        //与native的skip一样：lseek(SEEK_CUR)，不能定位时抛出IOException
+        FileChannel ch = getChannel();
+        long cur = ch.position();
+        if (cur + n < 0) {
+            throw new IOException("Negative seek offset");
+        }
+        ch.position(cur + n);
+        return n;
+    }
 
     /**
      * Returns an estimate of the number of remaining bytes that can be read (or
@@ -291,7 +470,123 @@ class FileInputStream extends InputStream
      * @exception  IOException  if this file input stream has been closed by calling
      *             {@code close} or an I/O error occurs.
      */
-    public native int available() throws IOException;
+    public int available() throws IOException {
+        if (!FileIOStats.enabled) {
+            return availableImpl();
+        }
+        long start = System.nanoTime();
+        int n = availableImpl();
+        stats().record(FileIOStats.Op.AVAILABLE, start, 0);
+        return n;
+    }
+
+    private native int available0() throws IOException;
+
+    private int availableImpl() throws IOException {
+        if (seekNativesRenamed) {
+            try {
+                return available0();
+            } catch (UnsatisfiedLinkError e) {
+                seekNativesRenamed = false;
+            }
+        }
+        if (closed) {
+            throw new IOException("Stream Closed");
+        }
+        //只能算出普通文件的剩余字节数；管道、终端等不能定位的返回0(估计值允许偏小)
+        try {
+            FileChannel ch = getChannel();
+            long remaining = ch.size() - ch.position();
+            if (remaining <= 0) {
+                return 0;
+            }
+            return (remaining > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)remaining;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Access-pattern hints that may be given to the operating system for a
+     * range of the file read by a <code>FileInputStream</code>.
+     * The ordinals match the <code>POSIX_FADV_*</code> advice values.
+     *
+     * @see #advise(long, long, FileInputStream.AccessHint)
+     */
+    public enum AccessHint {
+        /** No special treatment; restores the default readahead. */
+        NORMAL,
+        /** The range will be accessed in random order; readahead is disabled. */
+        RANDOM,
+        /** The range will be accessed sequentially; readahead is enlarged. */
+        SEQUENTIAL,
+        /** The range will be accessed in the near future; it is prefetched. */
+        WILLNEED,
+        /** The range will not be accessed again; cached pages may be dropped. */
+        DONTNEED
+    }
+
+    /**
+     * Announces how the given range of the file is going to be read.
+     *
+     * <p> The hint is advisory only: on platforms without an equivalent of
+     * <code>posix_fadvise</code>, or when the stream is not connected to a
+     * regular file, this method does nothing. It never changes the file
+     * position or the data returned by subsequent reads.
+     *
+     * @param      offset   the start of the range, in bytes from the
+     *                      beginning of the file.
+     * @param      len      the length of the range, or <code>0</code> to
+     *                      extend the range to the end of the file.
+     * @param      hint     the expected access pattern.
+     * @exception  NullPointerException If <code>hint</code> is <code>null</code>.
+     * @exception  IllegalArgumentException If <code>offset</code> or
+     *             <code>len</code> is negative.
+     * @exception  IOException  if this file input stream has been closed or
+     *             an I/O error occurs.
+     * @since 1.8
+     */
+    public void advise(long offset, long len, AccessHint hint)
+        throws IOException
+    {
+        if (hint == null) {
+            throw new NullPointerException();
+        }
+        if (offset < 0 || len < 0) {
+            throw new IllegalArgumentException("Negative offset or length");
+        }
+        if (closed) {
+            throw new IOException("Stream Closed");
+        }
+        if (!adviseSupported) {
+            return;
+        }
+        try {
+            advise0(offset, len, hint.ordinal());//只是提示 内核可以忽略
+        } catch (UnsatisfiedLinkError e) {
+            adviseSupported = false;//本地库中还没有advise0
+        }
+    }
+
+    /*
+     * Whether the native library provides advise0.  The native side
+     * (posix_fadvise in FileInputStream_md.c) is not part of this source
+     * tree yet; until a libjava built with it is used, advise is a no-op
+     * as documented for platforms without an equivalent.  For the same
+     * reason BufferedInputStream does not issue hints on its own: that
+     * waits for a libjava that exports advise0.
+     */
+    private static volatile boolean adviseSupported = true;
+
+    /**
+     * Passes an access-pattern hint to the operating system.
+     * @param offset the start of the range
+     * @param len the length of the range, 0 means up to the end of the file
+     * @param advice the <code>POSIX_FADV_*</code> value
+     * @exception IOException If an I/O error has occurred.
+     */
+    private native void advise0(long offset, long len, int advice)
+        throws IOException;
 
     /**
      * Closes this file input stream and releases any system resources
@@ -318,7 +613,13 @@ class FileInputStream extends InputStream
 
         fd.closeAll(new Closeable() {
             public void close() throws IOException {
+               if (!FileIOStats.enabled) {
+                   close0();
+                   return;
+               }
+               long start = System.nanoTime();
                close0();
+               stats().record(FileIOStats.Op.CLOSE, start, 0);
            }
         });
     }
@@ -365,6 +666,23 @@ class FileInputStream extends InputStream
         }
     }
 
+    /**
+     * Returns the recorder that native call latencies of this stream are
+     * attributed to: the one set by {@link FileIOStats#tag}, or else the
+     * one for this stream's path.
+     */
+    FileIOStats.Recorder stats() {
+        FileIOStats.Recorder r = stats;
+        if (r == null) {
+            stats = r = FileIOStats.recorder(path);//没有路径时归到"fd"
+        }
+        return r;
+    }
+
+    void setStats(FileIOStats.Recorder recorder) {
+        stats = recorder;
+    }
+
     private static native void initIDs();
 
     private native void close0() throws IOException;
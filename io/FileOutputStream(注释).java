@@ -25,6 +25,7 @@
 
 package java.io;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import sun.nio.ch.FileChannelImpl;
 
@@ -76,6 +77,12 @@ class FileOutputStream extends OutputStream
     private final Object closeLock = new Object();
     private volatile boolean closed = false;
 
+    /**
+     * The latency recorder, resolved on first use while FileIOStats
+     * is enabled.
+     */
+    private FileIOStats.Recorder stats;
+
     /**
      * Creates a file output stream to write to the file with the
      * specified name. A new <code>FileDescriptor</code> object is
@@ -256,9 +263,20 @@ class FileOutputStream extends OutputStream
      * @param name name of file to be opened
      * @param append whether the file is to be opened in append mode
      */
-    private native void open(String name, boolean append)
+    private native void open0(String name, boolean append)
         throws FileNotFoundException;
 
+    // wrap native call to allow instrumentation
+    /**
+     * Opens a file, with the specified name, for overwriting or appending.
+     * @param name name of file to be opened
+     * @param append whether the file is to be opened in append mode
+     */
+    private void open(String name, boolean append)
+        throws FileNotFoundException {
+        open0(name, append);
+    }
+
     /**
      * Writes the specified byte to this file output stream.
      *
@@ -276,7 +294,16 @@ class FileOutputStream extends OutputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public void write(int b) throws IOException {
+        Object event = IOEvents.begin(IOEvents.FILE_WRITE);
+        if (!FileIOStats.enabled) {
+            write(b, append);
+            IOEvents.endFileWrite(event, path, 1);
+            return;
+        }
+        long start = System.nanoTime();
         write(b, append);
+        stats().record(FileIOStats.Op.WRITE, start, 1);
+        IOEvents.endFileWrite(event, path, 1);
     }
 
     /**
@@ -291,6 +318,21 @@ class FileOutputStream extends OutputStream
     private native void writeBytes(byte b[], int off, int len, boolean append)
         throws IOException;
 
+    private void timedWriteBytes(byte b[], int off, int len)
+        throws IOException
+    {
+        Object event = IOEvents.begin(IOEvents.FILE_WRITE);
+        if (!FileIOStats.enabled) {
+            writeBytes(b, off, len, append);
+            IOEvents.endFileWrite(event, path, len);
+            return;
+        }
+        long start = System.nanoTime();
+        writeBytes(b, off, len, append);
+        stats().record(FileIOStats.Op.WRITE_BYTES, start, len);
+        IOEvents.endFileWrite(event, path, len);
+    }
+
     /**
      * Writes <code>b.length</code> bytes from the specified byte array
      * to this file output stream.
@@ -299,7 +341,7 @@ class FileOutputStream extends OutputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public void write(byte b[]) throws IOException {
-        writeBytes(b, 0, b.length, append);
+        timedWriteBytes(b, 0, b.length);
     }
 
     /**
@@ -312,7 +354,90 @@ class FileOutputStream extends OutputStream
      * @exception  IOException  if an I/O error occurs.
      */
     public void write(byte b[], int off, int len) throws IOException {
-        writeBytes(b, off, len, append);
+        timedWriteBytes(b, off, len);
+    }
+
+    /*
+     * The gathering write goes through this stream's channel: on JDK 8
+     * FileChannelImpl already issues writev for an array of buffers and,
+     * since it is opened with this stream's append flag, honours append
+     * mode.  A channel write may be short, so it is repeated until every
+     * buffer is drained.
+     */
+    private void timedWritev(ByteBuffer[] srcs) throws IOException {
+        Object event = IOEvents.begin(IOEvents.FILE_WRITE);
+        long n = 0;
+        for (ByteBuffer bb : srcs) {
+            n += bb.remaining();
+        }
+        long start = FileIOStats.enabled ? System.nanoTime() : 0;
+        FileChannel ch = getChannel();
+        while (hasRemaining(srcs)) {
+            ch.write(srcs);
+        }
+        if (FileIOStats.enabled) {
+            stats().record(FileIOStats.Op.WRITE_VECTOR, start, n);
+        }
+        IOEvents.endFileWrite(event, path, n);
+    }
+
+    /**
+     * Writes all bytes of a sequence of arrays, in order, to this file
+     * output stream with a gathering write.  The result is the same as if
+     * the arrays had been concatenated and passed to {@link #write(byte[])}.
+     *
+     * <p> The bytes are not guaranteed to be written as one unit.  A gathering
+     * write may be split into several system calls: after a short write, or
+     * when there are more arrays than the platform's <code>IOV_MAX</code>.
+     * In append mode each of those calls goes to the end of the file, so
+     * data appended by other writers may land between the arrays.
+     *
+     * <p> A record made of a header, a body and a trailer held in separate
+     * arrays can thus be written without concatenating them first and with
+     * one system call instead of one per array.
+     *
+     * <p> The write is performed by this stream's {@link #getChannel()
+     * channel}.  As with any channel operation, if the writing thread is
+     * interrupted the channel, and with it this stream, is closed.
+     *
+     * @param      bufs   the data.
+     * @exception  NullPointerException If <code>bufs</code> or any of its
+     *             elements is <code>null</code>.
+     * @exception  IOException  if an I/O error occurs.
+     * @since 1.8
+     */
+    public void write(byte[][] bufs) throws IOException {
+        ByteBuffer[] srcs = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; i++) {
+            srcs[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        timedWritev(srcs);
+    }
+
+    /**
+     * Writes the remaining bytes of a sequence of buffers, in order, to this
+     * file output stream with a gathering write, and advances each
+     * buffer's position to its limit.  As with {@link #write(byte[][])},
+     * the bytes are not guaranteed to be written as one unit, and the write
+     * is performed by this stream's {@link #getChannel() channel}.
+     *
+     * @param      srcs   the data.
+     * @exception  NullPointerException If <code>srcs</code> or any of its
+     *             elements is <code>null</code>.
+     * @exception  IOException  if an I/O error occurs.
+     * @since 1.8
+     */
+    public void write(ByteBuffer[] srcs) throws IOException {
+        timedWritev(srcs);
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs) {
+        for (ByteBuffer bb : srcs) {
+            if (bb.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -342,7 +467,13 @@ class FileOutputStream extends OutputStream
 
         fd.closeAll(new Closeable() {
             public void close() throws IOException {
+               if (!FileIOStats.enabled) {
+                   close0();
+                   return;
+               }
+               long start = System.nanoTime();
                close0();
+               stats().record(FileIOStats.Op.CLOSE, start, 0);
            }
         });
     }
@@ -413,6 +544,23 @@ class FileOutputStream extends OutputStream
         }
     }
 
+    /**
+     * Returns the recorder that native call latencies of this stream are
+     * attributed to: the one set by {@link FileIOStats#tag}, or else the
+     * one for this stream's path.
+     */
+    private FileIOStats.Recorder stats() {
+        FileIOStats.Recorder r = stats;
+        if (r == null) {
+            stats = r = FileIOStats.recorder(path);
+        }
+        return r;
+    }
+
+    void setStats(FileIOStats.Recorder recorder) {
+        stats = recorder;
+    }
+
     private native void close0() throws IOException;
 
     private static native void initIDs();
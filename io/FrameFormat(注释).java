@@ -0,0 +1,76 @@
+package java.io;
+
+/*
+FrameFormat 消息的分帧方式，供FrameReader/FrameWriter使用
+	三种方式：
+		varint()                   帧体前面是varint编码的长度(每字节7位，低位在前，最高位为1表示还有后续字节，最多5个字节)
+		fixedHeader(n, off, size)  帧体前面是n个字节的固定头部，其中从off开始的size(1、2、4)个字节是帧体长度(大端)
+		delimited(d)               帧体以字节d结束，帧体中不能出现d
+*/
+public final class FrameFormat {
+
+    static final int VARINT = 0;
+    static final int FIXED_HEADER = 1;
+    static final int DELIMITED = 2;
+
+    // varint最多的字节数(int的32位，每字节7位)
+    static final int MAX_VARINT_BYTES = 5;
+
+    final int kind;
+    final int headerLength;
+    final int lengthOffset;
+    final int lengthSize;
+    final byte delimiter;
+
+    private FrameFormat(int kind, int headerLength, int lengthOffset,
+                        int lengthSize, byte delimiter) {
+        this.kind = kind;
+        this.headerLength = headerLength;
+        this.lengthOffset = lengthOffset;
+        this.lengthSize = lengthSize;
+        this.delimiter = delimiter;
+    }
+
+    // varint长度前缀
+    public static FrameFormat varint() {
+        return new FrameFormat(VARINT, 0, 0, 0, (byte)0);
+    }
+
+    // headerLength个字节的固定头部，长度字段在头部的lengthOffset处，占lengthSize(1、2或4)个字节，大端
+    public static FrameFormat fixedHeader(int headerLength, int lengthOffset, int lengthSize) {
+        if (lengthSize != 1 && lengthSize != 2 && lengthSize != 4) {
+            throw new IllegalArgumentException("lengthSize must be 1, 2 or 4");
+        }
+        if (lengthOffset < 0 || lengthOffset + lengthSize > headerLength) {
+            throw new IllegalArgumentException("Length field outside header");
+        }
+        return new FrameFormat(FIXED_HEADER, headerLength, lengthOffset, lengthSize, (byte)0);
+    }
+
+    // 以delimiter结束的帧
+    public static FrameFormat delimited(byte delimiter) {
+        return new FrameFormat(DELIMITED, 0, 0, 0, delimiter);
+    }
+
+    // 从头部b的off处读取长度字段
+    int readLength(byte[] b, int off) {
+        int v = 0;
+        for (int i = 0; i < lengthSize; i++) {
+            v = (v << 8) | (b[off + lengthOffset + i] & 0xFF);
+        }
+        return v;
+    }
+
+    // 把长度len写入头部b的off处的长度字段
+    void writeLength(byte[] b, int off, int len) {
+        for (int i = lengthSize - 1; i >= 0; i--) {
+            b[off + lengthOffset + i] = (byte)len;
+            len >>>= 8;
+        }
+    }
+
+    // 长度字段能表示的最大长度
+    long maxLength() {
+        return (lengthSize == 4) ? Integer.MAX_VALUE : (1L << (lengthSize * 8)) - 1;
+    }
+}
@@ -0,0 +1,358 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+
+/*
+FrameReader 从BufferedInputStream中按帧读取消息
+	分帧方式见FrameFormat。帧直接在BufferedInputStream的缓冲区中解析，不逐字节调用read()：
+		整帧能放进缓冲区时，slice()返回指向缓冲区中帧体的只读ByteBuffer，不复制
+		帧比缓冲区还大时，通过body()流式读取帧体
+	body()对两种情况都可以用。slice()、body()、header()都只在下一次next()之前有效，
+	next()会跳过当前帧还没读的部分。
+
+	用法：
+		FrameReader frames = new FrameReader(new BufferedInputStream(in), FrameFormat.varint(), 1 << 20);
+		while (frames.next()) {
+			if (frames.isBuffered())
+				handle(frames.slice());
+			else
+				handle(frames.body());
+		}
+*/
+public class FrameReader implements Closeable {
+
+    private final BufferedInputStream in;
+    private final FrameFormat format;
+    private final int maxFrame;
+
+    // 当前帧体的长度；流式读取的delimited帧长度未知，为-1
+    private long length = -1;
+
+    // 当前帧是否没有完全放进缓冲区(需要流式读取)
+    private boolean streaming;
+
+    // 整帧在缓冲区中时，指向帧体的视图，以及body()读取用的副本
+    private ByteBuffer slice;
+    private ByteBuffer bodyView;
+
+    // 流式读取时：长度前缀帧还没读的字节数；delimited帧已经读了的字节数、是否已经读到分隔符
+    private long remaining;
+    private long streamed;
+    private boolean delimiterSeen;
+
+    // fixedHeader帧的头部
+    private final byte[] header;
+
+    private final InputStream body = new BodyStream();
+
+    // 构造函数：帧体超过maxFrame字节时，next()或者读取帧体时抛出IOException
+    public FrameReader(BufferedInputStream in, FrameFormat format, int maxFrame) {
+        if (maxFrame < 0) {
+            throw new IllegalArgumentException("maxFrame < 0");
+        }
+        this.in = in;
+        this.format = format;
+        this.maxFrame = maxFrame;
+        this.header = (format.kind == FrameFormat.FIXED_HEADER)
+            ? new byte[format.headerLength] : null;
+    }
+
+    // 移到下一帧。返回false表示输入流已经结束(在帧的边界上)
+    public boolean next() throws IOException {
+        synchronized (in) {
+            skipRest();
+            slice = null;
+            bodyView = null;
+            streaming = false;
+            length = -1;
+            switch (format.kind) {
+            case FrameFormat.VARINT:
+                return nextVarint();
+            case FrameFormat.FIXED_HEADER:
+                return nextFixedHeader();
+            default:
+                return nextDelimited();
+            }
+        }
+    }
+
+    // 长度前缀按字节补齐：只在需要下一个字节(前一个字节的最高位是1)时才要求缓冲区中多一个字节，
+    // 否则最后一帧很短时，ensureBuffered(MAX_VARINT_BYTES)会一直等待不会到来的数据
+    private boolean nextVarint() throws IOException {
+        int v = 0;
+        for (int i = 0; ; i++) {
+            if (i == FrameFormat.MAX_VARINT_BYTES) {
+                throw new IOException("Malformed varint frame length");
+            }
+            // ensureBuffered()可能把数据移到缓冲区开头，所以每次都重新读取buf和pos
+            if (in.ensureBuffered(i + 1) <= i) {
+                if (i == 0) {
+                    return false;
+                }
+                throw new EOFException();
+            }
+            byte c = in.buf[in.pos + i];
+            v |= (c & 0x7F) << (7 * i);
+            if (c >= 0) {
+                in.pos += i + 1;
+                break;
+            }
+        }
+        beginBody(v);
+        return true;
+    }
+
+    private boolean nextFixedHeader() throws IOException {
+        int n = format.headerLength;
+        int r = in.ensureBuffered(n);
+        if (r == 0) {
+            return false;
+        }
+        if (r < n) {
+            throw new EOFException();
+        }
+        System.arraycopy(in.buf, in.pos, header, 0, n);
+        in.pos += n;
+        beginBody(format.readLength(header, 0));
+        return true;
+    }
+
+    // 在缓冲区中找分隔符；缓冲区满了还没找到，就改为流式读取
+    private boolean nextDelimited() throws IOException {
+        byte delim = format.delimiter;
+        // [pos, pos + scanned)中已经确认没有分隔符
+        int scanned = 0;
+        for (;;) {
+            byte[] b = in.buf;
+            int p = in.pos;
+            for (int i = p + scanned; i < in.count; i++) {
+                if (b[i] == delim) {
+                    bufferedBody(i - p);
+                    in.pos++;//分隔符
+                    return true;
+                }
+            }
+            scanned = in.count - p;
+            if (scanned > maxFrame) {
+                throw new IOException("Frame larger than " + maxFrame + " bytes");
+            }
+            if (scanned >= b.length) {
+                streaming = true;
+                streamed = 0;
+                delimiterSeen = false;
+                return true;
+            }
+            if (in.ensureBuffered(scanned + 1) <= scanned) {
+                // 输入结束：最后一帧可以没有分隔符
+                if (scanned == 0) {
+                    return false;
+                }
+                bufferedBody(scanned);
+                return true;
+            }
+        }
+    }
+
+    // 长度前缀已经读完，帧体长度是len
+    private void beginBody(int len) throws IOException {
+        if (len < 0 || len > maxFrame) {
+            throw new IOException("Frame larger than " + maxFrame + " bytes");
+        }
+        if (len <= in.buf.length) {
+            if (in.ensureBuffered(len) < len) {
+                throw new EOFException();
+            }
+            bufferedBody(len);
+        } else {
+            length = len;
+            streaming = true;
+            remaining = len;
+        }
+    }
+
+    // 帧体是缓冲区中从pos开始的len个字节
+    private void bufferedBody(int len) {
+        length = len;
+        slice = ByteBuffer.wrap(in.buf, in.pos, len).slice().asReadOnlyBuffer();
+        bodyView = slice.duplicate();
+        in.pos += len;
+    }
+
+    // 跳过当前流式帧还没读的部分
+    private void skipRest() throws IOException {
+        if (!streaming) {
+            return;
+        }
+        if (format.kind != FrameFormat.DELIMITED) {
+            while (remaining > 0) {
+                long n = in.skip(remaining);
+                if (n <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    n = 1;
+                }
+                remaining -= n;
+            }
+        } else {
+            byte[] scratch = new byte[512];
+            while (body.read(scratch, 0, scratch.length) >= 0)
+                ;
+        }
+    }
+
+    // 当前帧体的长度；流式读取的delimited帧返回-1
+    public long length() {
+        return length;
+    }
+
+    // 当前帧是否完全在缓冲区中(可以用slice())
+    public boolean isBuffered() {
+        return slice != null;
+    }
+
+    // 缓冲区中帧体的只读视图，不复制。帧不在缓冲区中时抛出IllegalStateException
+    public ByteBuffer slice() {
+        if (slice == null) {
+            throw new IllegalStateException("Frame is not buffered");
+        }
+        return slice;
+    }
+
+    // fixedHeader帧的头部(包括长度字段)
+    public ByteBuffer header() {
+        if (header == null) {
+            throw new IllegalStateException("Format has no fixed header");
+        }
+        return ByteBuffer.wrap(header).asReadOnlyBuffer();
+    }
+
+    // 读取当前帧体的流，读到帧的末尾返回-1
+    public InputStream body() {
+        return body;
+    }
+
+    // 关闭FrameReader和它读取的BufferedInputStream
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private final class BodyStream extends InputStream {
+
+        // 读取一个字节：直接从bodyView或者BufferedInputStream的缓冲区中取
+        public int read() throws IOException {
+            synchronized (in) {
+                if (bodyView != null) {
+                    return bodyView.hasRemaining() ? bodyView.get() & 0xFF : -1;
+                }
+                if (!streaming) {
+                    return -1;
+                }
+                if (format.kind != FrameFormat.DELIMITED) {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    if (in.ensureBuffered(1) == 0) {
+                        throw new EOFException();
+                    }
+                    remaining--;
+                    return in.buf[in.pos++] & 0xFF;
+                }
+                if (delimiterSeen) {
+                    return -1;
+                }
+                if (in.ensureBuffered(1) == 0) {
+                    delimiterSeen = true;//输入结束，最后一帧没有分隔符
+                    return -1;
+                }
+                byte c = in.buf[in.pos++];
+                if (c == format.delimiter) {
+                    delimiterSeen = true;
+                    return -1;
+                }
+                if (++streamed > maxFrame) {
+                    throw new IOException("Frame larger than " + maxFrame + " bytes");
+                }
+                return c & 0xFF;
+            }
+        }
+
+        public int read(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+            synchronized (in) {
+                if (bodyView != null) {
+                    if (!bodyView.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, bodyView.remaining());
+                    bodyView.get(b, off, n);
+                    return n;
+                }
+                if (!streaming) {
+                    return -1;
+                }
+                if (format.kind != FrameFormat.DELIMITED) {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    int n = in.read(b, off, (int)Math.min(len, remaining));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    remaining -= n;
+                    return n;
+                }
+                return readDelimited(b, off, len);
+            }
+        }
+
+        // 流式读取delimited帧：复制到分隔符为止
+        private int readDelimited(byte b[], int off, int len) throws IOException {
+            if (delimiterSeen) {
+                return -1;
+            }
+            int r = in.ensureBuffered(1);
+            if (r == 0) {
+                delimiterSeen = true;//输入结束，最后一帧没有分隔符
+                return -1;
+            }
+            byte[] buf = in.buf;
+            int p = in.pos;
+            int lim = p + Math.min(r, len);
+            int i = p;
+            while (i < lim && buf[i] != format.delimiter) {
+                i++;
+            }
+            int n = i - p;
+            System.arraycopy(buf, p, b, off, n);
+            in.pos = i;
+            if (i < lim) {
+                in.pos++;//分隔符
+                delimiterSeen = true;
+            }
+            streamed += n;
+            if (streamed > maxFrame) {
+                throw new IOException("Frame larger than " + maxFrame + " bytes");
+            }
+            return (n == 0) ? -1 : n;
+        }
+
+        public int available() {
+            synchronized (in) {
+                if (bodyView != null) {
+                    return bodyView.remaining();
+                }
+                if (streaming && format.kind != FrameFormat.DELIMITED) {
+                    return (int)Math.min(remaining, in.count - in.pos);
+                }
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package java.io;
+
+/*
+FrameWriter 向BufferedOutputStream中按帧写入消息
+	分帧方式见FrameFormat。
+		writeFrame()  帧体长度已知，直接写入长度(或头部)和帧体
+		begin()/end() 帧体长度未知：begin()在BufferedOutputStream的缓冲区中预留长度字段的位置
+		              (varint固定占5个字节，高位用0x80补齐；fixedHeader占整个头部)，
+		              通过begin()返回的流写入帧体，end()时把实际长度回填到预留的位置。
+	帧体放不下缓冲区时，这一帧已经写入缓冲区的部分(包括预留的长度字段)被移到一个额外的数组中，
+	之后的帧体也写到那里，end()回填长度后一次写出。所以预留的长度字段不会在回填之前被写出。
+
+	一帧没有end()之前，不要直接写入或者刷新下面的BufferedOutputStream；
+	需要刷新时调用FrameWriter.flush()。
+*/
+public class FrameWriter implements Closeable, Flushable {
+
+    private final BufferedOutputStream out;
+    private final FrameFormat format;
+
+    // 长度字段(或头部)预留的字节数，delimited帧为0
+    private final int slotSize;
+
+    // 是否正在写一帧(begin()之后、end()之前)
+    private boolean open;
+
+    // 预留的长度字段在out.buf中的位置
+    private int slotPos;
+
+    // 这一帧是否已经移到spill中；spill中[0, spillCount)是这一帧(从预留的长度字段开始)
+    private boolean spilled;
+    private byte[] spill;
+    private int spillCount;
+
+    // 这一帧已经写入的帧体长度
+    private long bodyLength;
+
+    private final OutputStream body = new BodyStream();
+
+    public FrameWriter(BufferedOutputStream out, FrameFormat format) {
+        this.out = out;
+        this.format = format;
+        switch (format.kind) {
+        case FrameFormat.VARINT:
+            slotSize = FrameFormat.MAX_VARINT_BYTES;
+            break;
+        case FrameFormat.FIXED_HEADER:
+            slotSize = format.headerLength;
+            break;
+        default:
+            slotSize = 0;
+        }
+    }
+
+    // 写入一帧：帧体是b中从off开始的len个字节。fixedHeader帧的头部除长度字段外都是0
+    public void writeFrame(byte b[], int off, int len) throws IOException {
+        writeFrame(null, b, off, len);
+    }
+
+    // 写入一帧：fixedHeader帧使用头部header(长度字段会被覆盖)，其它方式忽略header
+    public void writeFrame(byte header[], byte b[], int off, int len) throws IOException {
+        synchronized (out) {
+            if (open) {
+                throw new IOException("Frame in progress");
+            }
+            switch (format.kind) {
+            case FrameFormat.VARINT: {
+                // 长度已知，用最短的varint
+                int dp = out.lease(FrameFormat.MAX_VARINT_BYTES);
+                int v = len;
+                while ((v & ~0x7F) != 0) {
+                    out.buf[dp++] = (byte)((v & 0x7F) | 0x80);
+                    v >>>= 7;
+                }
+                out.buf[dp++] = (byte)v;
+                out.commit(dp);
+                out.write(b, off, len);
+                break;
+            }
+            case FrameFormat.FIXED_HEADER: {
+                checkLength(len);
+                byte[] h = new byte[format.headerLength];
+                if (header != null) {
+                    System.arraycopy(header, 0, h, 0, Math.min(header.length, h.length));
+                }
+                format.writeLength(h, 0, len);
+                out.write(h, 0, h.length);
+                out.write(b, off, len);
+                break;
+            }
+            default:
+                checkNoDelimiter(b, off, len);
+                out.write(b, off, len);
+                out.write(format.delimiter);
+            }
+        }
+    }
+
+    // 开始一帧，返回写入帧体的流。fixedHeader帧的头部除长度字段外都是0
+    public OutputStream begin() throws IOException {
+        return begin(null);
+    }
+
+    // 开始一帧，fixedHeader帧使用头部header(长度字段在end()时回填)，返回写入帧体的流
+    public OutputStream begin(byte header[]) throws IOException {
+        synchronized (out) {
+            if (open) {
+                throw new IOException("Frame in progress");
+            }
+            open = true;
+            bodyLength = 0;
+            spilled = false;
+            if (slotSize == 0) {
+                return body;
+            }
+            if (slotSize > out.buf.length) {
+                // 缓冲区连长度字段都放不下，整帧写在spill中
+                spilled = true;
+                spillCount = 0;
+                ensureSpill(slotSize);
+                fillSlot(spill, 0, header);
+                spillCount = slotSize;
+                return body;
+            }
+            slotPos = out.lease(slotSize);
+            fillSlot(out.buf, slotPos, header);
+            out.commit(slotPos + slotSize);
+            return body;
+        }
+    }
+
+    // 预留的长度字段的初始内容
+    private void fillSlot(byte[] b, int p, byte header[]) {
+        for (int i = 0; i < slotSize; i++) {
+            b[p + i] = 0;
+        }
+        if (header != null && format.kind == FrameFormat.FIXED_HEADER) {
+            System.arraycopy(header, 0, b, p, Math.min(header.length, slotSize));
+        }
+    }
+
+    // 结束当前帧：回填长度(delimited帧写入分隔符)
+    public void end() throws IOException {
+        synchronized (out) {
+            if (!open) {
+                throw new IOException("No frame in progress");
+            }
+            open = false;
+            if (slotSize == 0) {
+                out.write(format.delimiter);
+                return;
+            }
+            byte[] b = spilled ? spill : out.buf;
+            int p = spilled ? 0 : slotPos;
+            int len = (int)bodyLength;
+            if (format.kind == FrameFormat.VARINT) {
+                // 固定5个字节：前4个字节的最高位都是1
+                for (int i = 0; i < FrameFormat.MAX_VARINT_BYTES - 1; i++) {
+                    b[p + i] = (byte)((len & 0x7F) | 0x80);
+                    len >>>= 7;
+                }
+                b[p + FrameFormat.MAX_VARINT_BYTES - 1] = (byte)len;
+            } else {
+                format.writeLength(b, p, len);
+            }
+            if (spilled) {
+                spilled = false;
+                out.write(spill, 0, spillCount);
+            }
+        }
+    }
+
+    // 把这一帧已经写入out缓冲区的部分移到spill中。调用方持有out的锁
+    private void moveToSpill(int extra) {
+        int have = out.count - slotPos;
+        spillCount = 0;
+        ensureSpill(have + extra);
+        System.arraycopy(out.buf, slotPos, spill, 0, have);
+        spillCount = have;
+        out.commit(slotPos);
+        spilled = true;
+    }
+
+    private void ensureSpill(int capacity) {
+        if (spill == null || spill.length < capacity) {
+            byte[] nspill = new byte[Math.max(capacity, (spill == null) ? 0 : spill.length * 2)];
+            if (spill != null) {
+                System.arraycopy(spill, 0, nspill, 0, spillCount);
+            }
+            spill = nspill;
+        }
+    }
+
+    private void checkLength(long len) throws IOException {
+        long max = (format.kind == FrameFormat.FIXED_HEADER)
+            ? format.maxLength() : Integer.MAX_VALUE;
+        if (len > max) {
+            throw new IOException("Frame larger than " + max + " bytes");
+        }
+    }
+
+    private void checkNoDelimiter(byte b[], int off, int len) throws IOException {
+        byte d = format.delimiter;
+        for (int i = off, end = off + len; i < end; i++) {
+            if (b[i] == d) {
+                throw new IOException("Delimiter inside frame body");
+            }
+        }
+    }
+
+    // 刷新：正在写的长度前缀帧先移到spill中，保证未回填的长度字段不会被写出
+    public void flush() throws IOException {
+        synchronized (out) {
+            if (open && slotSize > 0 && !spilled) {
+                moveToSpill(0);
+            }
+            out.flush();
+        }
+    }
+
+    // 关闭FrameWriter和它写入的BufferedOutputStream。没有end()的帧被丢弃
+    public void close() throws IOException {
+        synchronized (out) {
+            if (open && slotSize > 0 && !spilled) {
+                out.commit(slotPos);
+            }
+            open = false;
+            spilled = false;
+            out.close();
+        }
+    }
+
+    private final class BodyStream extends OutputStream {
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        public void write(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                       ((off + len) > b.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            synchronized (out) {
+                if (!open) {
+                    throw new IOException("No frame in progress");
+                }
+                if (slotSize == 0) {
+                    checkNoDelimiter(b, off, len);
+                    out.write(b, off, len);
+                    bodyLength += len;
+                    return;
+                }
+                checkLength(bodyLength + len);
+                bodyLength += len;
+                if (!spilled) {
+                    if (out.buf.length - out.count >= len) {
+                        System.arraycopy(b, off, out.buf, out.count, len);
+                        out.commit(out.count + len);
+                        return;
+                    }
+                    // 缓冲区放不下，不能刷新(长度字段还没回填)，改为写入spill
+                    moveToSpill(len);
+                }
+                ensureSpill(spillCount + len);
+                System.arraycopy(b, off, spill, spillCount, len);
+                spillCount += len;
+            }
+        }
+
+        // 帧体的流不单独刷新，见FrameWriter.flush()
+        public void flush() {
+        }
+
+        // 关闭帧体的流就是结束这一帧
+        public void close() throws IOException {
+            synchronized (out) {
+                if (open) {
+                    end();
+                }
+            }
+        }
+    }
+}
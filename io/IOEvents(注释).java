@@ -0,0 +1,510 @@
+package java.io;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+IOEvents 流的JFR事件
+	用一次普通的JFR录制找出做了太多小I/O的流：
+		java.io.FileIOSummary    每个周期(默认10 s)每个文件路径一个：读写的次数、字节数，按每次的大小分成4档
+		                         (≤64 B、≤1 KiB、≤8 KiB、更大)。小I/O本身很快，低于下面事件的阈值，靠这个事件看到
+	下面的事件带有调用栈，只记录慢的调用(默认阈值@Threshold 1 ms)，生产环境中打开也很便宜：
+		java.io.BufferFill       BufferedInputStream填充缓冲区：请求、实际读到的字节数，是否有mark，缓冲区是否扩大
+		java.io.BufferFlush      BufferedOutputStream把缓冲区写到下层流
+		java.io.FileReadBytes    FileInputStream的一次native读(read0、readBytes，以及经过通道的readv)：路径、请求和读到的字节数
+		java.io.FileWriteBytes   FileOutputStream的一次native写(write、writeBytes，以及经过通道的writev)：路径、字节数
+	要看到每一次小I/O的调用栈，在.jfc配置中把阈值改成0 ms。
+	管道的等待事件见PipeStats(java.io.PipeWriterStall / java.io.PipeReaderWait)。
+
+	什么时候才碰JFR：
+		没有JFR的JDK上JFR_AVAILABLE为false，Jfr类不会被加载，begin()总是返回null。
+		有JFR时，在JFR初始化(有人开始录制)之前也不加载事件类型：FileInputStream在虚拟机启动、
+		系统类加载器还没有建好时就会被用到，这时初始化JFR会失败。
+		begin()最多每POLL_NANOS检查一次FlightRecorder.isInitialized()，JFR初始化之后注册一个监听器，
+		有录制在运行时才加载事件类型、注册周期事件；所以录制开始后最多晚POLL_NANOS才有事件。
+		没有录制时，begin()只是一次volatile读和一次System.nanoTime()，不创建事件对象。
+
+	用法：
+		Object event = IOEvents.begin(IOEvents.FLUSH);
+		... 实际的I/O ...
+		IOEvents.endFlush(event, n, size);
+*/
+final class IOEvents {
+
+    // 当前JDK是否带有JFR(jdk.jfr)
+    static final boolean JFR_AVAILABLE = jfrAvailable();
+
+    // begin()的事件种类
+    static final int FILL = 0;
+    static final int FLUSH = 1;
+    static final int FILE_READ = 2;
+    static final int FILE_WRITE = 3;
+
+    private IOEvents() {
+    }
+
+    private static boolean jfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, null);
+            return true;
+        } catch (ClassNotFoundException | LinkageError x) {
+            return false;
+        }
+    }
+
+    // 是否有JFR录制在运行(事件类型已经加载)
+    static boolean recording() {
+        return JFR_AVAILABLE && Jfr.types() != null;
+    }
+
+    // 开始一个kind种类的事件。返回的事件声明成Object，没有JFR的JDK也能加载调用方；
+    // 没有JFR、没有录制或者事件没有打开时返回null，对应的end*()不提交事件
+    static Object begin(int kind) {
+        return JFR_AVAILABLE ? Jfr.begin(kind) : null;
+    }
+
+    // 结束BufferFill事件：缓冲区从oldSize变成size，为这次读取留出requested个字节，实际读到n个(-1表示EOF)
+    static void endFill(Object event, int requested, int n, boolean marked,
+                        int oldSize, int size) {
+        if (event != null) {
+            Jfr.endFill(event, requested, n, marked, oldSize, size);
+        }
+    }
+
+    // 结束BufferFlush事件：写出了n个字节，缓冲区大小是size
+    static void endFlush(Object event, int n, int size) {
+        if (event != null) {
+            Jfr.endFlush(event, n, size);
+        }
+    }
+
+    // 结束FileReadBytes事件：请求requested个字节，读到n个(-1表示EOF)。
+    // event为null时也要计入FileIOSummary
+    static void endFileRead(Object event, String path, long requested, long n) {
+        if (JFR_AVAILABLE) {
+            Jfr.endFileRead(event, path, requested, n);
+        }
+    }
+
+    // 结束FileWriteBytes事件：写了n个字节。event为null时也要计入FileIOSummary
+    static void endFileWrite(Object event, String path, long n) {
+        if (JFR_AVAILABLE) {
+            Jfr.endFileWrite(event, path, n);
+        }
+    }
+
+    // 用到JFR类的部分。只在JFR_AVAILABLE时才会被加载；
+    // 加载这个类不会初始化JFR，事件类型在有录制运行时才由Types加载
+    static final class Jfr {
+        // 两次检查FlightRecorder.isInitialized()之间至少间隔多久
+        private static final long POLL_NANOS = 1000L * 1000 * 1000;
+
+        // 有录制运行之后才不为null
+        private static volatile Types types;
+        // 已经注册了监听器，不需要再检查
+        private static volatile boolean listening;
+        private static volatile long lastPoll = System.nanoTime();
+
+        private Jfr() {
+        }
+
+        static Types types() {
+            Types t = types;
+            if (t == null && !listening) {
+                t = poll();
+            }
+            return t;
+        }
+
+        // JFR初始化之后注册监听器：addListener()会马上回调recorderInitialized()，
+        // 之后每次录制开始都回调recordingStateChanged()
+        private static Types poll() {
+            long now = System.nanoTime();
+            if (now - lastPoll < POLL_NANOS) {
+                return null;
+            }
+            lastPoll = now;
+            if (!FlightRecorder.isInitialized()) {
+                return null;
+            }
+            synchronized (Jfr.class) {
+                if (listening) {
+                    return types;
+                }
+                listening = true;
+            }
+            try {
+                AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                    public Void run() {
+                        FlightRecorder.addListener(new Listener());
+                        return null;
+                    }
+                });
+            } catch (RuntimeException | LinkageError x) {
+                // 不能监听JFR(例如被安全管理器拒绝)：不发出事件
+            }
+            return types;
+        }
+
+        // 有录制开始运行：加载事件类型，注册周期事件。只做一次
+        static synchronized void recordingStarted() {
+            if (types == null) {
+                types = new Types();
+            }
+        }
+
+        static Object begin(int kind) {
+            Types t = types();
+            if (t == null) {
+                return null;
+            }
+            jdk.jfr.Event e;
+            switch (kind) {
+            case FILL:
+                if (!t.fill.isEnabled())
+                    return null;
+                e = new BufferFillEvent();
+                break;
+            case FLUSH:
+                if (!t.flush.isEnabled())
+                    return null;
+                e = new BufferFlushEvent();
+                break;
+            case FILE_READ:
+                if (!t.read.isEnabled())
+                    return null;
+                e = new FileReadBytesEvent();
+                break;
+            default:
+                if (!t.write.isEnabled())
+                    return null;
+                e = new FileWriteBytesEvent();
+            }
+            e.begin();
+            return e;
+        }
+
+        static void endFill(Object event, int requested, int n, boolean marked,
+                            int oldSize, int size) {
+            BufferFillEvent e = (BufferFillEvent)event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.bytesRequested = requested;
+                e.bytesRead = n;
+                e.endOfStream = (n < 0);
+                e.marked = marked;
+                e.previousBufferSize = oldSize;
+                e.bufferSize = size;
+                e.commit();
+            }
+        }
+
+        static void endFlush(Object event, int n, int size) {
+            BufferFlushEvent e = (BufferFlushEvent)event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.bytesWritten = n;
+                e.bufferSize = size;
+                e.commit();
+            }
+        }
+
+        static void endFileRead(Object event, String path, long requested, long n) {
+            Types t = types;
+            if (t != null && t.summary.isEnabled()) {
+                Summary.of(path).add(Summary.READS, (n < 0) ? 0 : n);
+            }
+            if (event == null) {
+                return;
+            }
+            FileReadBytesEvent e = (FileReadBytesEvent)event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.path = path;
+                e.bytesRequested = requested;
+                e.bytesRead = n;
+                e.endOfFile = (n < 0);
+                e.commit();
+            }
+        }
+
+        static void endFileWrite(Object event, String path, long n) {
+            Types t = types;
+            if (t != null && t.summary.isEnabled()) {
+                Summary.of(path).add(Summary.WRITES, n);
+            }
+            if (event == null) {
+                return;
+            }
+            FileWriteBytesEvent e = (FileWriteBytesEvent)event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.path = path;
+                e.bytesWritten = n;
+                e.commit();
+            }
+        }
+    }
+
+    // 事件类型。有录制运行之后才创建，创建时注册了事件类和FileIOSummary的周期回调
+    static final class Types {
+        final EventType fill = EventType.getEventType(BufferFillEvent.class);
+        final EventType flush = EventType.getEventType(BufferFlushEvent.class);
+        final EventType read = EventType.getEventType(FileReadBytesEvent.class);
+        final EventType write = EventType.getEventType(FileWriteBytesEvent.class);
+        final EventType summary = EventType.getEventType(FileIOSummaryEvent.class);
+
+        Types() {
+            FlightRecorder.addPeriodicEvent(FileIOSummaryEvent.class, new Runnable() {
+                public void run() {
+                    Summary.emit();
+                }
+            });
+        }
+    }
+
+    // 监听JFR的录制状态
+    static final class Listener implements FlightRecorderListener {
+        public void recorderInitialized(FlightRecorder recorder) {
+            for (Recording r : recorder.getRecordings()) {
+                if (r.getState() == RecordingState.RUNNING) {
+                    Jfr.recordingStarted();
+                    return;
+                }
+            }
+        }
+
+        public void recordingStateChanged(Recording recording) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                Jfr.recordingStarted();
+            }
+        }
+    }
+
+    // 一个文件路径在当前周期内的读写计数，由FileIOSummary周期事件取走并清零。
+    // 与FileIOStats一样最多保留MAX_PATHS个路径，之后新出现的路径都归到"other"下
+    static final class Summary {
+        private static final int MAX_PATHS = 256;
+
+        // counts中的下标：READS或WRITES开始的6个计数依次是次数、字节数、4档大小的次数
+        static final int READS = 0;
+        static final int WRITES = 6;
+
+        private static final ConcurrentHashMap<String, Summary> paths =
+            new ConcurrentHashMap<String, Summary>();
+
+        final String path;
+        private final AtomicLongArray counts = new AtomicLongArray(12);
+
+        private Summary(String path) {
+            this.path = path;
+        }
+
+        static Summary of(String path) {
+            if (path == null) {
+                path = FileIOStats.NO_PATH;
+            }
+            Summary s = paths.get(path);
+            if (s == null) {
+                if (paths.size() >= MAX_PATHS) {
+                    path = FileIOStats.OVERFLOW;
+                    s = paths.get(path);
+                    if (s != null) {
+                        return s;
+                    }
+                }
+                Summary ns = new Summary(path);
+                s = paths.putIfAbsent(path, ns);
+                if (s == null) {
+                    s = ns;
+                }
+            }
+            return s;
+        }
+
+        // 记录一次传输了n个字节的读(base为READS)或写(base为WRITES)
+        void add(int base, long n) {
+            counts.incrementAndGet(base);
+            counts.addAndGet(base + 1, n);
+            int bucket = (n <= 64) ? 0 : (n <= 1024) ? 1 : (n <= 8192) ? 2 : 3;
+            counts.incrementAndGet(base + 2 + bucket);
+        }
+
+        // 每个有读写的路径提交一个事件，并把计数清零
+        static void emit() {
+            for (Summary s : paths.values()) {
+                long[] c = new long[12];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = s.counts.getAndSet(i, 0);
+                }
+                if (c[READS] == 0 && c[WRITES] == 0) {
+                    continue;
+                }
+                FileIOSummaryEvent e = new FileIOSummaryEvent();
+                e.path = s.path;
+                e.reads = c[READS];
+                e.bytesRead = c[READS + 1];
+                e.reads64 = c[READS + 2];
+                e.reads1k = c[READS + 3];
+                e.reads8k = c[READS + 4];
+                e.readsLarge = c[READS + 5];
+                e.writes = c[WRITES];
+                e.bytesWritten = c[WRITES + 1];
+                e.writes64 = c[WRITES + 2];
+                e.writes1k = c[WRITES + 3];
+                e.writes8k = c[WRITES + 4];
+                e.writesLarge = c[WRITES + 5];
+                e.commit();
+            }
+        }
+    }
+
+    @Name("java.io.BufferFill")
+    @Label("Buffer Fill")
+    @Category({ "Java Application", "Buffered Streams" })
+    @Description("BufferedInputStream refilled its buffer from the underlying stream")
+    @Threshold("1 ms")
+    static final class BufferFillEvent extends jdk.jfr.Event {
+        @Label("Bytes Requested")
+        @Description("Free space in the buffer offered to the underlying stream")
+        @DataAmount
+        int bytesRequested;
+
+        @Label("Bytes Read")
+        @DataAmount
+        int bytesRead;
+
+        @Label("End of Stream")
+        boolean endOfStream;
+
+        @Label("Marked")
+        @Description("A mark was set and its bytes were kept in the buffer")
+        boolean marked;
+
+        @Label("Previous Buffer Size")
+        @DataAmount
+        int previousBufferSize;
+
+        @Label("Buffer Size")
+        @Description("Larger than the previous size when the buffer grew to keep a mark")
+        @DataAmount
+        int bufferSize;
+    }
+
+    @Name("java.io.BufferFlush")
+    @Label("Buffer Flush")
+    @Category({ "Java Application", "Buffered Streams" })
+    @Description("BufferedOutputStream wrote its buffer to the underlying stream")
+    @Threshold("1 ms")
+    static final class BufferFlushEvent extends jdk.jfr.Event {
+        @Label("Bytes Written")
+        @DataAmount
+        int bytesWritten;
+
+        @Label("Buffer Size")
+        @DataAmount
+        int bufferSize;
+    }
+
+    @Name("java.io.FileReadBytes")
+    @Label("File Read Bytes")
+    @Category({ "Java Application", "File Streams" })
+    @Description("One native read by FileInputStream, single-byte, array or scattering")
+    @Threshold("1 ms")
+    static final class FileReadBytesEvent extends jdk.jfr.Event {
+        @Label("Path")
+        @Description("Null when the stream was opened from a file descriptor")
+        String path;
+
+        @Label("Bytes Requested")
+        @DataAmount
+        long bytesRequested;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("End of File")
+        boolean endOfFile;
+    }
+
+    @Name("java.io.FileWriteBytes")
+    @Label("File Write Bytes")
+    @Category({ "Java Application", "File Streams" })
+    @Description("One native write by FileOutputStream, single-byte, array or gathering")
+    @Threshold("1 ms")
+    static final class FileWriteBytesEvent extends jdk.jfr.Event {
+        @Label("Path")
+        @Description("Null when the stream was opened from a file descriptor")
+        String path;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("java.io.FileIOSummary")
+    @Label("File I/O Summary")
+    @Category({ "Java Application", "File Streams" })
+    @Description("Native reads and writes on one file path during the last period, by size")
+    @Period("10 s")
+    @StackTrace(false)
+    static final class FileIOSummaryEvent extends jdk.jfr.Event {
+        @Label("Path")
+        @Description("\"fd\" for streams opened from a file descriptor, \"other\" past the path limit")
+        String path;
+
+        @Label("Reads")
+        long reads;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Reads Up To 64 B")
+        long reads64;
+
+        @Label("Reads Up To 1 KiB")
+        long reads1k;
+
+        @Label("Reads Up To 8 KiB")
+        long reads8k;
+
+        @Label("Larger Reads")
+        long readsLarge;
+
+        @Label("Writes")
+        long writes;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Writes Up To 64 B")
+        long writes64;
+
+        @Label("Writes Up To 1 KiB")
+        long writes1k;
+
+        @Label("Writes Up To 8 KiB")
+        long writes8k;
+
+        @Label("Larger Writes")
+        long writesLarge;
+    }
+}
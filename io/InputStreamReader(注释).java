@@ -24,6 +24,10 @@ InputStreamReader 四种构造方法
 			boolean ready() throws IOException
 			void close() throws IOException
 	都是调用StreamDecoder中相应的方法
+
+	编码是UTF-8、US-ASCII、ISO-8859-1时(不指定解码器的构造方法)，改用FastDecoder：
+	ASCII字节成段地直接扩展成char，只有多字节序列才交给CharsetDecoder。
+	sd和fd中只有一个不为null
 */
 	
 
@@ -32,25 +36,22 @@ public class InputStreamReader extends Reader {
 
     private final StreamDecoder sd;
 
+    // UTF-8、US-ASCII、ISO-8859-1的快速解码
+    private final FastDecoder fd;
+
+    // sd使用的、取自CoderCache的解码器，close()时归还
+    private CharsetDecoder cached;
+
     // 根据in创建InputStreamReader，使用默认的编码
     public InputStreamReader(InputStream in) {
-        super(in);
-        try {
-            sd = StreamDecoder.forInputStreamReader(in, this, (String)null); // ## check lock object
-        } catch (UnsupportedEncodingException e) {
-            // The default encoding should always be available
-            throw new Error(e);
-        }
+        this(in, Charset.defaultCharset());
     }
 
     // 根据in创建InputStreamReader，使用编码charsetName(编码名)
     public InputStreamReader(InputStream in, String charsetName)
         throws UnsupportedEncodingException
     {
-        super(in);
-        if (charsetName == null)
-            throw new NullPointerException("charsetName");
-        sd = StreamDecoder.forInputStreamReader(in, this, charsetName);
+        this(in, CoderCache.forName(requireName(charsetName)));
     }
 
     // 根据in创建InputStreamReader，使用编码cs
@@ -58,7 +59,15 @@ public class InputStreamReader extends Reader {
         super(in);
         if (cs == null)
             throw new NullPointerException("charset");
-        sd = StreamDecoder.forInputStreamReader(in, this, cs);
+        if (FastDecoder.supports(cs)) {
+            fd = new FastDecoder(in, this, cs);
+            sd = null;
+        } else {
+            // 解码器从当前线程的缓存中取，与StreamDecoder自己创建的相同
+            fd = null;
+            cached = CoderCache.decoder(cs);
+            sd = StreamDecoder.forInputStreamReader(in, this, cached);
+        }
     }
 
     // 根据in创建InputStreamReader，使用解码器dec
@@ -66,31 +75,55 @@ public class InputStreamReader extends Reader {
         super(in);
         if (dec == null)
             throw new NullPointerException("charset decoder");
+        // 调用方的解码器可能有自己的错误处理方式，不走快速解码
+        fd = null;
         sd = StreamDecoder.forInputStreamReader(in, this, dec);
     }
 
+    private static String requireName(String charsetName) {
+        if (charsetName == null)
+            throw new NullPointerException("charsetName");
+        return charsetName;
+    }
+
     // 获取解码器
     public String getEncoding() {
-        return sd.getEncoding();
+        return (fd != null) ? fd.getEncoding() : sd.getEncoding();
     }
 
     // 读取并返回一个字符
     public int read() throws IOException {
-        return sd.read();
+        return (fd != null) ? fd.read() : sd.read();
     }
 
     // 将InputStreamReader中的数据写入cbuf中，从cbuf的offset位置开始写入，写入长度是length
     public int read(char cbuf[], int offset, int length) throws IOException {
-        return sd.read(cbuf, offset, length);
+        return (fd != null) ? fd.read(cbuf, offset, length) : sd.read(cbuf, offset, length);
+    }
+
+    // 逐行读取，每一行是一个可重用的CharSequence(只在下一次next()之前有效)，不为每一行创建String
+    public LineCursor lineCursor() {
+        return new LineCursor(this);
     }
 
     // 能否从InputStreamReader中读取数据
     public boolean ready() throws IOException {
-        return sd.ready();
+        return (fd != null) ? fd.ready() : sd.ready();
     }
 
     // 关闭InputStreamReader
     public void close() throws IOException {
+        if (fd != null) {
+            fd.close();
+            return;
+        }
         sd.close();
+        // 关闭成功后解码器不会再被使用，归还给当前线程的缓存
+        synchronized (this) {
+            if (cached != null) {
+                CoderCache.release(cached);
+                cached = null;
+            }
+        }
     }
 }
\ No newline at end of file
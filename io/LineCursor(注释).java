@@ -0,0 +1,164 @@
+package java.io;
+
+/*
+LineCursor 逐行读取，不为每一行创建String
+	BufferedReader.readLine()为每一行新建一个String，调用方往往只是把这一行切分、解析一下就丢掉了。
+	这里把字符读入自己的char数组，next()之后line()返回指向数组中当前行的CharSequence：
+		这个CharSequence是同一个对象，只在下一次next()之前有效(之后数组中的内容会被覆盖)
+		需要保留这一行时调用line().toString()，得到一个String副本
+	行的结束符与BufferedReader相同："\n"、"\r"或者"\r\n"，line()中不包含结束符。
+
+	用法：
+		LineCursor lines = new LineCursor(new InputStreamReader(in, StandardCharsets.UTF_8));
+		while (lines.next()) {
+			CharSequence line = lines.line();
+			...
+		}
+*/
+public class LineCursor implements Closeable {
+
+    private static final int DEFAULT_CHAR_BUFFER_SIZE = 8192;
+
+    private Reader in;
+
+    // 字符缓冲区：[pos, lim)是还没有处理的字符，当前行是[start, end)
+    private char cb[];
+    private int pos;
+    private int lim;
+    private int start;
+    private int end;
+
+    // 上一行以'\r'结束：如果下一个字符是'\n'，跳过它
+    private boolean skipLF;
+
+    private boolean eof;
+
+    // 当前行的视图，每次next()之后内容改变
+    private final LineView view = new LineView();
+
+    // 构造函数：缓冲区大小是8192个字符，行更长时自动扩大
+    public LineCursor(Reader in) {
+        this(in, DEFAULT_CHAR_BUFFER_SIZE);
+    }
+
+    // 构造函数：初始缓冲区大小是size个字符
+    public LineCursor(Reader in, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        this.in = in;
+        this.cb = new char[size];
+    }
+
+    private void ensureOpen() throws IOException {
+        if (in == null)
+            throw new IOException("Stream closed");
+    }
+
+    // 移到下一行。返回false表示没有更多的行了
+    public boolean next() throws IOException {
+        ensureOpen();
+        // [pos, pos + scanned)中已经确认没有行结束符
+        int scanned = 0;
+        for (;;) {
+            if (skipLF && pos < lim) {
+                // 跳过"\r\n"中的'\n'
+                if (cb[pos] == '\n') {
+                    pos++;
+                }
+                skipLF = false;
+            }
+            for (int i = pos + scanned; i < lim; i++) {
+                char c = cb[i];
+                if (c == '\n' || c == '\r') {
+                    start = pos;
+                    end = i;
+                    pos = i + 1;
+                    skipLF = (c == '\r');
+                    return true;
+                }
+            }
+            scanned = lim - pos;
+            if (eof || !fill()) {
+                // 最后一行没有结束符
+                if (pos < lim) {
+                    start = pos;
+                    end = lim;
+                    pos = lim;
+                    return true;
+                }
+                start = end = pos;
+                return false;
+            }
+        }
+    }
+
+    // 读入更多字符：先把未处理的字符移到数组开头，数组满了就扩大。返回false表示EOF
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(cb, pos, cb, 0, lim - pos);
+            lim -= pos;
+            pos = 0;
+        } else if (lim == cb.length) {
+            // 一行比缓冲区还长
+            char[] ncb = new char[cb.length * 2];
+            System.arraycopy(cb, 0, ncb, 0, lim);
+            cb = ncb;
+        }
+        int n;
+        do {
+            n = in.read(cb, lim, cb.length - lim);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        lim += n;
+        return true;
+    }
+
+    // 当前行，不包含行结束符。返回的对象在下一次next()之前有效
+    public CharSequence line() {
+        return view;
+    }
+
+    // 关闭LineCursor和它读取的Reader
+    public void close() throws IOException {
+        if (in == null)
+            return;
+        try {
+            in.close();
+        } finally {
+            in = null;
+            cb = null;
+        }
+    }
+
+    // 指向缓冲区中当前行的CharSequence
+    private final class LineView implements CharSequence {
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return cb[start + index];
+        }
+
+        // 返回String副本，在next()之后仍然有效
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to) {
+                throw new StringIndexOutOfBoundsException();
+            }
+            return new String(cb, start + from, to - from);
+        }
+
+        // 当前行的String副本，在next()之后仍然有效
+        public String toString() {
+            return new String(cb, start, end - start);
+        }
+    }
+}
@@ -13,30 +13,32 @@ OutputStreamWriter 中与InputStreamReader极为类似
 							分别为  
 							void flush() throws IOException
 							void flushBuffer() throws IOException//该方法为默认范围
+
+	下游正好是BufferedOutputStream、编码是UTF-8或US-ASCII时(不指定编码器的构造方法)，改用FastEncoder：
+	字符直接编码到BufferedOutputStream的缓冲区中，不经过StreamEncoder自己的缓冲区。
+	se和fe中只有一个不为null
 */
 // 将“字节输出流”转换成“字符输出流”
 public class OutputStreamWriter extends Writer {
 
     private final StreamEncoder se;
 
+    // 直接编码到下游BufferedOutputStream的缓冲区
+    private final FastEncoder fe;
+
+    // se使用的、取自CoderCache的编码器，close()时归还
+    private CharsetEncoder cached;
+
     // 根据out创建OutputStreamWriter，使用编码charsetName(编码名)
     public OutputStreamWriter(OutputStream out, String charsetName)
         throws UnsupportedEncodingException
     {
-        super(out);
-        if (charsetName == null)
-            throw new NullPointerException("charsetName");
-        se = StreamEncoder.forOutputStreamWriter(out, this, charsetName);
+        this(out, CoderCache.forName(requireName(charsetName)));
     }
 
     // 根据out创建OutputStreamWriter，使用默认的编码
     public OutputStreamWriter(OutputStream out) {
-        super(out);
-        try {
-            se = StreamEncoder.forOutputStreamWriter(out, this, (String)null);
-        } catch (UnsupportedEncodingException e) {
-            throw new Error(e);
-        }
+        this(out, Charset.defaultCharset());
     }
 
     // 根据out创建OutputStreamWriter，使用编码cs
@@ -44,7 +46,15 @@ public class OutputStreamWriter extends Writer {
         super(out);
         if (cs == null)
             throw new NullPointerException("charset");
-        se = StreamEncoder.forOutputStreamWriter(out, this, cs);
+        if (FastEncoder.supports(out, cs)) {
+            fe = new FastEncoder(out, cs);
+            se = null;
+        } else {
+            // 编码器从当前线程的缓存中取，与StreamEncoder自己创建的相同
+            fe = null;
+            cached = CoderCache.encoder(cs);
+            se = StreamEncoder.forOutputStreamWriter(out, this, cached);
+        }
     }
 
     // 根据out创建OutputStreamWriter，使用编码器enc
@@ -52,42 +62,76 @@ public class OutputStreamWriter extends Writer {
         super(out);
         if (enc == null)
             throw new NullPointerException("charset encoder");
+        // 调用方的编码器可能有自己的错误处理方式，不走直接编码
+        fe = null;
         se = StreamEncoder.forOutputStreamWriter(out, this, enc);
+    }
+
+    private static String requireName(String charsetName) {
+        if (charsetName == null)
+            throw new NullPointerException("charsetName");
+        return charsetName;
     }java io系列01之 "目录"
 
     // 获取编码器enc
     public String getEncoding() {
-        return se.getEncoding();
+        return (fe != null) ? fe.getEncoding() : se.getEncoding();
     }
 
     // 刷新缓冲区
     void flushBuffer() throws IOException {
-        se.flushBuffer();
+        if (fe != null)
+            fe.flushBuffer();
+        else
+            se.flushBuffer();
     }
 
     // 将单个字符写入到OutputStreamWriter中
     public void write(int c) throws IOException {
-        se.write(c);
+        if (fe != null)
+            fe.write(c);
+        else
+            se.write(c);
     }
 
     // 将字符数组cbuf从off开始的数据写入到OutputStreamWriter中，写入长度是len
     public void write(char cbuf[], int off, int len) throws IOException {
-        se.write(cbuf, off, len);
+        if (fe != null)
+            fe.write(cbuf, off, len);
+        else
+            se.write(cbuf, off, len);
     }
 
     // 将字符串str从off开始的数据写入到OutputStreamWriter中，写入长度是len
     public void write(String str, int off, int len) throws IOException {
-        se.write(str, off, len);
+        if (fe != null)
+            fe.write(str, off, len);
+        else
+            se.write(str, off, len);
     }java io系列01之 "目录"
 
     // 刷新“输出流”
     // 它与flushBuffer()的区别是：flushBuffer()只会刷新缓冲，而flush()是刷新流，flush()包括了flushBuffer。
     public void flush() throws IOException {
-        se.flush();
+        if (fe != null)
+            fe.flush();
+        else
+            se.flush();
     }
 
     // 关闭“输出流”
     public void close() throws IOException {
+        if (fe != null) {
+            fe.close();
+            return;
+        }
         se.close();
+        // 关闭成功后编码器不会再被使用，归还给当前线程的缓存
+        synchronized (this) {
+            if (cached != null) {
+                CoderCache.release(cached);
+                cached = null;
+            }
+        }
     }
 }
\ No newline at end of file
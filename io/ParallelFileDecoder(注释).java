@@ -0,0 +1,356 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/*
+ParallelFileDecoder 多线程解码大UTF-8文件
+	InputStreamReader只能在一个线程中按顺序解码。UTF-8的字符边界很容易找到
+	(后续字节都是10xxxxxx)，所以可以把文件切成若干块，每块从字符的开头开始，各自独立解码：
+		1. 按chunkSize把文件切开，每个切点向后移动到字符的开头(最多移动3个字节)；
+		   alignToLines为true时，移动到下一个'\n'之后，这样每块都由完整的行组成
+		   ('\n'不会出现在多字节序列中，所以行的开头一定也是字符的开头)。
+		   最多向后找MAX_LINE_LENGTH个字节；找不到'\n'(例如没有换行的文件)时退回到字符的开头，
+		   这样一行会被分在两块中，但每块最多chunkSize + MAX_LINE_LENGTH字节，可以放进一个数组
+		2. 每块用FileChannel按位置读取(不移动FileInputStream的位置，多个线程可以同时读)，
+		   在ForkJoinPool中解码
+		3. 按块的顺序返回结果：
+			reader()       按顺序读取的Reader，最多同时解码window块，内存占用有上限
+			spliterator()  每个元素是一块的解码结果，可以交给并行流(StreamSupport.stream(s, true))
+	非法的字节序列替换成'�'，与InputStreamReader一样。
+	文件的大小在创建时确定，之后追加的内容不会被读到。
+*/
+public class ParallelFileDecoder {
+
+    // 默认每块的大小
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    // 找行边界时每次读取的字节数
+    private static final int SCAN_SIZE = 8192;
+
+    // alignToLines时，切点最多向后移动这么多字节去找'\n'
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+
+    // chunkSize的上限：一块最多chunkSize + MAX_LINE_LENGTH + 3个字节，要能放进一个字节数组
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - 8 - MAX_LINE_LENGTH - 3;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final boolean alignToLines;
+    private final ForkJoinPool pool;
+
+    // 每块的起点，最后一个元素是文件大小；第一次使用时计算
+    private long[] bounds;
+
+    // 构造函数：每块4MB，切点对齐到字符，在公共ForkJoinPool中解码
+    public ParallelFileDecoder(FileInputStream in) throws IOException {
+        this(in, DEFAULT_CHUNK_SIZE, false, ForkJoinPool.commonPool());
+    }
+
+    // 构造函数：每块大约chunkSize字节；alignToLines为true时切点对齐到行；在pool中解码
+    public ParallelFileDecoder(FileInputStream in, int chunkSize,
+                               boolean alignToLines, ForkJoinPool pool)
+            throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0");
+        }
+        if (chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize > " + MAX_CHUNK_SIZE);
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        this.channel = in.getChannel();
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+        this.alignToLines = alignToLines;
+        this.pool = pool;
+    }
+
+    // 块数
+    public int chunks() throws IOException {
+        return bounds().length - 1;
+    }
+
+    // 计算每块的起点
+    private synchronized long[] bounds() throws IOException {
+        if (bounds == null) {
+            long[] b = new long[(int)Math.min((size + chunkSize - 1) / chunkSize, Integer.MAX_VALUE - 1) + 1];
+            int n = 0;
+            long pos = 0;
+            while (pos < size) {
+                b[n++] = pos;
+                pos = (size - pos <= chunkSize) ? size : boundary(pos + chunkSize);
+            }
+            b[n++] = size;
+            long[] r = new long[n];
+            System.arraycopy(b, 0, r, 0, n);
+            bounds = r;
+        }
+        return bounds;
+    }
+
+    // 从pos向后找到下一个切点：字符的开头，或者alignToLines时下一行的开头
+    private long boundary(long pos) throws IOException {
+        if (alignToLines) {
+            long line = lineBoundary(pos);
+            if (line >= 0) {
+                return line;
+            }
+            // MAX_LINE_LENGTH个字节内没有'\n'，退回到字符的开头
+        }
+        return charBoundary(pos);
+    }
+
+    // 从pos向后最多MAX_LINE_LENGTH个字节内找下一行的开头；到文件末尾返回size，找不到返回-1
+    private long lineBoundary(long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(SCAN_SIZE);
+        long limit = Math.min(size, pos + MAX_LINE_LENGTH);
+        while (pos < limit) {
+            bb.clear();
+            bb.limit((int)Math.min(SCAN_SIZE, limit - pos));
+            int n = channel.read(bb, pos);
+            if (n <= 0) {
+                return size;
+            }
+            for (int i = 0; i < n; i++) {
+                if (bb.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return (pos >= size) ? size : -1;
+    }
+
+    // 从pos向后找下一个字符的开头(最多移动3个字节)
+    private long charBoundary(long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(4);
+        int n = channel.read(bb, pos);
+        if (n <= 0) {
+            return size;
+        }
+        for (int i = 0; i < n; i++) {
+            byte c = bb.get(i);
+            if ((c & 0xC0) != 0x80 || i == 3) {
+                // 不是后续字节；连续4个后续字节说明数据本身不合法，就在这里切开
+                return pos + i;
+            }
+        }
+        return pos + n;
+    }
+
+    // 读取并解码[start, end)
+    private CharBuffer decode(long start, long end) throws IOException {
+        long length = end - start;
+        if (length > Integer.MAX_VALUE - 8) {
+            // bounds()保证不会发生，不能用强制转换截断
+            throw new IOException("Chunk of " + length + " bytes at " + start + " is too large");
+        }
+        ByteBuffer bb = ByteBuffer.allocate((int)length);
+        while (bb.hasRemaining()) {
+            int n = channel.read(bb, start + bb.position());
+            if (n < 0) {
+                break;//文件被截短了
+            }
+        }
+        bb.flip();
+        CharsetDecoder dec = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return dec.decode(bb);
+        } catch (CharacterCodingException x) {
+            throw new IOException(x);//REPLACE时不会发生
+        }
+    }
+
+    // 解码一块的任务
+    private final class DecodeTask extends RecursiveTask<CharBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final long start;
+        private final long end;
+
+        DecodeTask(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        protected CharBuffer compute() {
+            try {
+                return decode(start, end);
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+    }
+
+    // 等待任务完成，把任务中的IOException还原出来
+    private static CharBuffer join(ForkJoinTask<CharBuffer> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException x) {
+            throw x.getCause();
+        } catch (CancellationException x) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // 按顺序读取整个文件的Reader：在pool中最多同时解码window块
+    public Reader reader(int window) throws IOException {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window <= 0");
+        }
+        return new ChunkReader(bounds(), window);
+    }
+
+    // 按顺序读取整个文件的Reader，同时解码的块数是pool并行度的2倍
+    public Reader reader() throws IOException {
+        return reader(pool.getParallelism() * 2);
+    }
+
+    // 每个元素是一块的解码结果，按文件中的顺序排列。
+    // 交给并行流时由流的ForkJoinPool解码，而不是构造函数中的pool
+    public Spliterator<CharBuffer> spliterator() throws IOException {
+        long[] b = bounds();
+        return new ChunkSpliterator(b, 0, b.length - 1);
+    }
+
+    private final class ChunkReader extends Reader {
+        private final long[] bounds;
+        private final int window;
+        // 已经提交、还没有读取的任务，按块的顺序排列
+        private final ArrayDeque<ForkJoinTask<CharBuffer>> pending =
+            new ArrayDeque<ForkJoinTask<CharBuffer>>();
+        // 下一个要提交的块
+        private int next;
+        // 正在读取的块
+        private CharBuffer current;
+        private boolean closed;
+
+        ChunkReader(long[] bounds, int window) {
+            this.bounds = bounds;
+            this.window = window;
+        }
+
+        // 当前块读完时，换成下一块，并提交新的任务补满窗口。返回false表示EOF
+        private boolean ensureChunk() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                while (pending.size() < window && next < bounds.length - 1) {
+                    pending.addLast(pool.submit(new DecodeTask(bounds[next], bounds[next + 1])));
+                    next++;
+                }
+                ForkJoinTask<CharBuffer> task = pending.pollFirst();
+                if (task == null) {
+                    current = null;
+                    return false;
+                }
+                current = join(task);
+            }
+            return true;
+        }
+
+        public int read(char cbuf[], int off, int len) throws IOException {
+            synchronized (lock) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if ((off < 0) || (off > cbuf.length) || (len < 0) ||
+                    ((off + len) > cbuf.length) || ((off + len) < 0)) {
+                    throw new IndexOutOfBoundsException();
+                } else if (len == 0) {
+                    return 0;
+                }
+                if (!ensureChunk()) {
+                    return -1;
+                }
+                int n = Math.min(len, current.remaining());
+                current.get(cbuf, off, n);
+                return n;
+            }
+        }
+
+        public boolean ready() throws IOException {
+            synchronized (lock) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                return (current != null && current.hasRemaining())
+                    || (!pending.isEmpty() && pending.peekFirst().isDone());
+            }
+        }
+
+        // 关闭：取消还没有完成的任务。FileInputStream由调用方关闭
+        public void close() {
+            synchronized (lock) {
+                closed = true;
+                current = null;
+                for (ForkJoinTask<CharBuffer> t : pending) {
+                    t.cancel(false);
+                }
+                pending.clear();
+            }
+        }
+    }
+
+    private final class ChunkSpliterator implements Spliterator<CharBuffer> {
+        private final long[] bounds;
+        // 还没有处理的块是[index, fence)
+        private int index;
+        private final int fence;
+
+        ChunkSpliterator(long[] bounds, int index, int fence) {
+            this.bounds = bounds;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        public boolean tryAdvance(Consumer<? super CharBuffer> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (index >= fence) {
+                return false;
+            }
+            int i = index++;
+            try {
+                action.accept(decode(bounds[i], bounds[i + 1]));
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+            return true;
+        }
+
+        public Spliterator<CharBuffer> trySplit() {
+            int lo = index;
+            int mid = (lo + fence) >>> 1;
+            if (lo >= mid) {
+                return null;
+            }
+            index = mid;
+            return new ChunkSpliterator(bounds, lo, mid);
+        }
+
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+}
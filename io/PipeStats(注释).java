@@ -0,0 +1,228 @@
+package java.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/*
+PipeStats 管道的背压统计
+	用来判断一条流水线是受生产者限制还是受消费者限制：
+		写线程因管道满而等待的次数和时间(writer stall)：越多说明下游(读线程)越慢
+		读线程因管道空而等待的次数和时间(reader wait)：越多说明上游(写线程)越慢
+		每次写入后管道中的字节数分布(occupancy)：经常接近缓冲区大小说明缓冲区不够大或者下游慢
+		写入管道的总字节数
+	默认不统计，调用PipedInputStream.enableStats()后开始，之后通过snapshot()获取数据。
+
+	另外，每次等待都会发出JFR事件(java.io.PipeWriterStall / java.io.PipeReaderWait)，
+	不需要enableStats()，在JFR中打开这两个事件即可，没有JFR的JDK上不发出。
+	与IOEvents中的事件一样，短于阈值(默认1 ms)的等待不记录。
+*/
+public final class PipeStats {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final FileIOStats.Histogram writerStalls = new FileIOStats.Histogram();
+    private final FileIOStats.Histogram readerWaits = new FileIOStats.Histogram();
+    // 记录的是字节数，不是纳秒：Histogram只是按数值分桶，读取时用不带Nanos的方法
+    private final FileIOStats.Histogram occupancy = new FileIOStats.Histogram();
+
+    // 最近一次记录时的缓冲区大小(可增长的管道会变化)
+    private volatile int capacity;
+
+    PipeStats() {
+    }
+
+    // 写入了n个字节，之后管道中有buffered个字节，缓冲区大小是size
+    void received(int n, int buffered, int size) {
+        bytes.addAndGet(n);
+        occupancy.record(buffered);
+        capacity = size;
+    }
+
+    // 清空已经记录的数据
+    public void reset() {
+        bytes.set(0);
+        writerStalls.reset();
+        readerWaits.reset();
+        occupancy.reset();
+    }
+
+    // 当前统计数据的快照
+    public Snapshot snapshot() {
+        return new Snapshot(bytes.get(), capacity,
+                            writerStalls.snapshot(0), readerWaits.snapshot(0),
+                            occupancy.snapshot(0));
+    }
+
+    // 既不统计也没有JFR录制时beginWait()返回的共享对象，endWait()对它什么都不做
+    private static final Wait NO_WAIT = new Wait(false, 0, null);
+
+    // 开始一次等待：writer为true表示写线程等空间，否则是读线程等数据。
+    // stats为null(没有enableStats())并且没有JFR录制时不分配对象
+    static Wait beginWait(PipeStats stats, boolean writer) {
+        Object event = null;
+        if (IOEvents.recording()) {
+            event = writer ? Events.beginWriterStall() : Events.beginReaderWait();
+        }
+        if (stats == null && event == null) {
+            return NO_WAIT;
+        }
+        return new Wait(writer, System.nanoTime(), event);
+    }
+
+    // 结束一次等待：stats为null时(没有enableStats())只发出JFR事件。
+    // buffered是等待结束时管道中的字节数，size是缓冲区大小
+    static void endWait(PipeStats stats, Wait w, int buffered, int size) {
+        if (w == NO_WAIT) {
+            return;
+        }
+        if (stats != null) {
+            long nanos = System.nanoTime() - w.startNanos;
+            (w.writer ? stats.writerStalls : stats.readerWaits).record(nanos);
+        }
+        if (w.event != null) {
+            Events.end(w.event, buffered, size);
+        }
+    }
+
+    // 一次正在进行的等待
+    static final class Wait {
+        final boolean writer;
+        final long startNanos;
+        // JFR事件，没有JFR时为null。声明成Object，没有JFR的JDK也能加载这个类
+        final Object event;
+
+        Wait(boolean writer, long startNanos, Object event) {
+            this.writer = writer;
+            this.startNanos = startNanos;
+            this.event = event;
+        }
+    }
+
+    // JFR事件。只在IOEvents.JFR_AVAILABLE时才会被加载
+    static final class Events {
+        private Events() {
+        }
+
+        static Object beginWriterStall() {
+            PipeWriterStallEvent e = new PipeWriterStallEvent();
+            e.begin();
+            return e;
+        }
+
+        static Object beginReaderWait() {
+            PipeReaderWaitEvent e = new PipeReaderWaitEvent();
+            e.begin();
+            return e;
+        }
+
+        static void end(Object event, int buffered, int size) {
+            PipeEvent e = (PipeEvent)event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.bytesBuffered = buffered;
+                e.bufferSize = size;
+                e.commit();
+            }
+        }
+    }
+
+    @Category({ "Java Application", "Pipes" })
+    @Threshold("1 ms")
+    abstract static class PipeEvent extends jdk.jfr.Event {
+        @Label("Bytes Buffered")
+        @Description("Bytes in the pipe when the wait ended")
+        int bytesBuffered;
+
+        @Label("Buffer Size")
+        int bufferSize;
+    }
+
+    @Name("java.io.PipeWriterStall")
+    @Label("Pipe Writer Stall")
+    @Description("A writer blocked because the pipe was full")
+    static final class PipeWriterStallEvent extends PipeEvent {
+    }
+
+    @Name("java.io.PipeReaderWait")
+    @Label("Pipe Reader Wait")
+    @Description("A reader blocked because the pipe was empty")
+    static final class PipeReaderWaitEvent extends PipeEvent {
+    }
+
+    // 某一时刻的统计数据(不可变)
+    public static final class Snapshot {
+        private final long bytes;
+        private final int capacity;
+        private final FileIOStats.Snapshot writerStalls;
+        private final FileIOStats.Snapshot readerWaits;
+        private final FileIOStats.Snapshot occupancy;
+
+        Snapshot(long bytes, int capacity, FileIOStats.Snapshot writerStalls,
+                 FileIOStats.Snapshot readerWaits, FileIOStats.Snapshot occupancy) {
+            this.bytes = bytes;
+            this.capacity = capacity;
+            this.writerStalls = writerStalls;
+            this.readerWaits = readerWaits;
+            this.occupancy = occupancy;
+        }
+
+        // 写入管道的总字节数
+        public long bytes() {
+            return bytes;
+        }
+
+        // 缓冲区大小
+        public int capacity() {
+            return capacity;
+        }
+
+        // 写线程等待空间的次数
+        public long writerStallCount() {
+            return writerStalls.count();
+        }
+
+        // 写线程等待空间的总时间
+        public long writerStallNanos() {
+            return writerStalls.totalNanos();
+        }
+
+        // 写线程单次等待时间的百分位数
+        public long writerStallPercentileNanos(double percentile) {
+            return writerStalls.percentileNanos(percentile);
+        }
+
+        // 读线程等待数据的次数
+        public long readerWaitCount() {
+            return readerWaits.count();
+        }
+
+        // 读线程等待数据的总时间
+        public long readerWaitNanos() {
+            return readerWaits.totalNanos();
+        }
+
+        // 读线程单次等待时间的百分位数
+        public long readerWaitPercentileNanos(double percentile) {
+            return readerWaits.percentileNanos(percentile);
+        }
+
+        // 每次写入后管道中字节数的百分位数(字节)，例如occupancyPercentile(50)
+        public long occupancyPercentile(double percentile) {
+            return occupancy.percentile(percentile);
+        }
+
+        // 每次写入后管道中的最大字节数
+        public long maxOccupancy() {
+            return occupancy.max();
+        }
+
+        // 每次写入后管道中的平均字节数
+        public double meanOccupancy() {
+            long n = occupancy.count();
+            return (n == 0) ? 0 : (double)occupancy.total() / n;
+        }
+    }
+}
@@ -1,5 +1,14 @@
 package java.io;
 
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 //该类中的receive是准备被PipedInputStream调用的
 public class PipedInputStream extends InputStream {
 	/*
@@ -25,6 +34,20 @@ public class PipedInputStream extends InputStream {
     Thread readSide;    // 读取“管道”数据的线程
     Thread writeSide;    // 向“管道”写入数据的线程
 
+    // 是否根据读写线程是否存活来判断管道是否断开。
+    // 线程池、虚拟线程中同一个流会先后被不同的线程使用，线程死掉(或者回到池中)并不代表管道断开，
+    // 此时应调用setThreadBound(false)：不再记录读写线程，管道只由两端的close()
+    // 以及“管道输出流”对象是否还可达来判断是否断开，等待时也不再定期醒来检查线程。
+    volatile boolean threadBound = true;
+
+    // “管道输出流”没有close()就变得不可达了(被GC回收)，不会再有数据写入。
+    // 只有threadBound为false的管道才检测
+    volatile boolean writerLost = false;
+
+    // 连接的“管道输出流”，在PipedOutputStream的connect()中设置。
+    // 弱引用：setThreadBound(false)用它登记回收检测，不能让“管道输出流”因此一直可达
+    volatile WeakReference<PipedOutputStream> source;
+
     // “管道”的默认大小
     private static final int DEFAULT_PIPE_SIZE = 1024;
 
@@ -38,6 +61,57 @@ public class PipedInputStream extends InputStream {
     //下一个读取字节的位置。in==out代表满，说明“写入的数据”全部被读取了。
     protected int out = 0;
 
+    // 保护管道状态的锁。
+    // 原来是在this上synchronized，再用notifyAll()+wait(1000)轮询：
+    // 写线程写入数据后并不唤醒读线程，读线程最长要等1秒才发现有数据。
+    // 现在用两个条件精确唤醒：写入数据后唤醒notEmpty上的读线程，读出数据后唤醒notFull上的写线程。
+    final ReentrantLock lock = new ReentrantLock();
+    // 管道非空：读线程在这里等待
+    final Condition notEmpty = lock.newCondition();
+    // 管道非满：写线程在这里等待
+    final Condition notFull = lock.newCondition();
+
+    // 对方线程可能已经死掉而不会再发信号，所以等待时仍然每隔这么久检查一次管道状态
+    private static final long LIVENESS_CHECK_MILLIS = 1000;
+
+    // 可增长的管道：缓冲区从minPipeSize开始，写线程频繁被阻塞时翻倍增长，最大到maxPipeSize；
+    // 写线程很久没有被阻塞、并且管道读空时，缩回minPipeSize。
+    // 用原来的构造函数创建时minPipeSize == maxPipeSize，缓冲区大小固定不变。
+    private int minPipeSize;
+    private int maxPipeSize;
+
+    // 写线程在GROW_WINDOW_NANOS之内被阻塞多少次，才增长缓冲区。
+    // 偶尔的阻塞(例如相隔几分钟的两次)说明缓冲区够用，不应该增长
+    private static final int GROW_AFTER_STALLS = 4;
+    private static final long GROW_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // 写线程多久没有被阻塞，就认为管道空闲，可以缩小缓冲区
+    private static final long SHRINK_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 当前计数窗口内写线程被阻塞的次数，以及窗口开始的时间
+    private int stalls;
+    private long stallWindowStart;
+
+    // 写线程最近一次被阻塞的时间
+    private long lastStallNanos;
+
+    // 背压统计，enableStats()之后才有，受lock保护
+    private PipeStats stats;
+
+    // 还没有数据可读的异步读(readAsync)，按调用顺序排队，受lock保护
+    private ArrayDeque<PendingRead> pendingReads;
+
+    // 一个异步读：数据读入dst，读到的字节数通过future返回
+    private static final class PendingRead {
+        final ByteBuffer dst;
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        int n;
+
+        PendingRead(ByteBuffer dst) {
+            this.dst = dst;
+        }
+    }
+
 	/*private void initPipe(int pipeSize)
     pipeSize>0 就初始化缓冲区
 	public void connect(PipedOutputStream src) 
@@ -83,12 +157,135 @@ public class PipedInputStream extends InputStream {
         initPipe(pipeSize);
     }
 
+    // 构造函数：可增长的管道，缓冲区从initialSize开始，最大增长到maxSize
+    public PipedInputStream(int initialSize, int maxSize) {
+        initPipe(initialSize, maxSize);
+    }
+
+    // 构造函数：指定与之连接的“管道输出流”，缓冲区从initialSize开始，最大增长到maxSize
+    public PipedInputStream(PipedOutputStream src, int initialSize, int maxSize)
+            throws IOException {
+        initPipe(initialSize, maxSize);
+        connect(src);
+    }
+
+    // 设置是否根据读写线程是否存活来判断管道是否断开，默认为true。
+    // 读写两端会在不同线程(线程池、虚拟线程)之间传递时设为false，应在开始读写之前调用。
+    // 设为false之后，“管道输出流”没有close()就被回收时，读取会抛出"Pipe broken"
+    public void setThreadBound(boolean bound) {
+        lock.lock();
+        try {
+            threadBound = bound;
+            if (!bound) {
+                readSide = null;
+                writeSide = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        WeakReference<PipedOutputStream> ref = source;
+        if (!bound && ref != null) {
+            PipedOutputStream src = ref.get();
+            if (src != null) {
+                src.watchAbandoned();
+            } else {
+                writerAbandoned();//已经被回收了
+            }
+        }
+    }
+
+    // 开始统计写线程等待、读线程等待、管道中的字节数分布以及写入的字节数，返回统计对象。
+    // SpscPipedInputStream的无锁读写不统计
+    public PipeStats enableStats() {
+        lock.lock();
+        try {
+            if (stats == null) {
+                stats = new PipeStats();
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 统计对象，没有调用enableStats()时返回null
+    public PipeStats getStats() {
+        lock.lock();
+        try {
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // 初始化“管道”：新建缓冲区大小
     private void initPipe(int pipeSize) {
-         if (pipeSize <= 0) {
+         initPipe(pipeSize, pipeSize);
+    }
+
+    private void initPipe(int initialSize, int maxSize) {
+         if (initialSize <= 0) {
             throw new IllegalArgumentException("Pipe Size <= 0");
          }
-         buffer = new byte[pipeSize];
+         if (maxSize < initialSize) {
+            throw new IllegalArgumentException("Max pipe size < initial pipe size");
+         }
+         buffer = new byte[initialSize];
+         minPipeSize = initialSize;
+         maxPipeSize = maxSize;
+    }
+
+    // 写线程被阻塞：若短时间内频繁被阻塞并且还能增长，就把缓冲区翻倍。调用方持有lock，此时管道是满的。
+    // 返回true表示已经增长，写线程不需要再等待
+    private boolean growOnStall() {
+        long now = System.nanoTime();
+        lastStallNanos = now;
+        if (buffer.length >= maxPipeSize) {
+            return false;
+        }
+        if (stalls == 0 || now - stallWindowStart > GROW_WINDOW_NANOS) {
+            stalls = 0;//开始新的计数窗口
+            stallWindowStart = now;
+        }
+        if (++stalls < GROW_AFTER_STALLS) {
+            return false;
+        }
+        int newSize = (int)Math.min((long)buffer.length * 2, maxPipeSize);
+        resize(newSize);
+        return true;
+    }
+
+    // 管道刚被读空：若写线程已经很久没有被阻塞，就缩回初始大小。调用方持有lock
+    private void shrinkIfIdle() {
+        if (buffer.length > minPipeSize
+                && System.nanoTime() - lastStallNanos > SHRINK_IDLE_NANOS) {
+            resize(minPipeSize);
+        }
+    }
+
+    // 换成大小为newSize的缓冲区，把管道中的数据按顺序搬到新缓冲区的开头。调用方持有lock
+    private void resize(int newSize) {
+        byte[] nbuf = new byte[newSize];
+        int avail = 0;
+        if (in >= 0) {
+            if (in > out) {
+                avail = in - out;
+                System.arraycopy(buffer, out, nbuf, 0, avail);
+            } else {
+                // 数据绕过了缓冲区末尾(in == out时是满的)
+                int first = buffer.length - out;
+                System.arraycopy(buffer, out, nbuf, 0, first);
+                System.arraycopy(buffer, 0, nbuf, first, in);
+                avail = first + in;
+            }
+        }
+        buffer = nbuf;
+        out = 0;
+        in = (avail == 0) ? -1 : avail;
+        if (in == newSize) {
+            in = 0;//新缓冲区正好满
+        }
+        stalls = 0;
     }
 
     // 将“管道输入流”和“管道输出流”绑定。
@@ -99,22 +296,33 @@ public class PipedInputStream extends InputStream {
 
     // 接收int类型的数据b。
     // 它只会在PipedOutputStream的write(int b)中会被调用
-    protected synchronized void receive(int b) throws IOException {
-        // 检查管道状态
-        checkStateForReceive();
-        // 获取“写入管道”的线程
-        writeSide = Thread.currentThread();
-        // 若“写入管道”的数据正好全部被读取完，则等待。
-        if (in == out)
-            awaitSpace();
-        if (in < 0) {
-            in = 0;
-            out = 0;
-        }
-        // 将b保存到缓冲区
-        buffer[in++] = (byte)(b & 0xFF);
-        if (in >= buffer.length) {
-            in = 0;
+    protected void receive(int b) throws IOException {
+        lock.lock();
+        try {
+            // 检查管道状态
+            checkStateForReceive();
+            // 获取“写入管道”的线程
+            if (threadBound)
+                writeSide = Thread.currentThread();
+            // 若“写入管道”的数据正好全部被读取完，则等待。
+            if (in == out)
+                awaitSpace();
+            if (in < 0) {
+                in = 0;
+                out = 0;
+            }
+            // 将b保存到缓冲区
+            buffer[in++] = (byte)(b & 0xFF);
+            if (in >= buffer.length) {
+                in = 0;
+            }
+            // 有数据了，唤醒等待的读线程
+            notEmpty.signal();
+            if (stats != null)
+                stats.received(1, available0(), buffer.length);
+            completeAsyncReads();
+        } finally {
+            lock.unlock();
         }
     }
 	/*主功能方法
@@ -144,11 +352,22 @@ public class PipedInputStream extends InputStream {
 			从缓冲区中一个个读
 			*/
     // 接收字节数组b。
-    synchronized void receive(byte b[], int off, int len)  throws IOException {
+    void receive(byte b[], int off, int len)  throws IOException {
+        lock.lock();
+        try {
+            receive0(b, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // receive(byte[],int,int)的实现，调用方持有lock
+    private void receive0(byte b[], int off, int len)  throws IOException {
         // 检查管道状态
         checkStateForReceive();
         // 获取“写入管道”的线程
-        writeSide = Thread.currentThread();
+        if (threadBound)
+            writeSide = Thread.currentThread();
         int bytesToTransfer = len;
         while (bytesToTransfer > 0) {
             // 若“写入管道”的数据正好全部被读取完，则等待。
@@ -181,6 +400,40 @@ public class PipedInputStream extends InputStream {
             if (in >= buffer.length) {
                 in = 0;
             }
+            // 每写入一段就唤醒读线程，读线程可以一边读，写线程一边写剩下的
+            notEmpty.signal();
+        }
+        if (stats != null)
+            stats.received(len, available0(), buffer.length);
+        completeAsyncReads();
+    }
+
+    // 不等待地接收字节数组b：只复制管道当前放得下的部分，返回复制的字节数。
+    // 由PipedOutputStream的linger线程调用，所以不记录写线程
+    int offer(byte b[], int off, int len) throws IOException {
+        lock.lock();
+        try {
+            checkStateForReceive();
+            int n = Math.min(buffer.length - available0(), len);
+            if (n == 0) {
+                return 0;
+            }
+            if (in < 0) {
+                in = out = 0;
+            }
+            int first = Math.min(n, buffer.length - in);
+            System.arraycopy(b, off, buffer, in, first);
+            if (n > first) {
+                System.arraycopy(b, off + first, buffer, 0, n - first);
+            }
+            in = (in + n) % buffer.length;
+            notEmpty.signal();
+            if (stats != null)
+                stats.received(n, available0(), buffer.length);
+            completeAsyncReads();
+            return n;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -190,65 +443,143 @@ public class PipedInputStream extends InputStream {
             throw new IOException("Pipe not connected");
         } else if (closedByWriter || closedByReader) {
             throw new IOException("Pipe closed");
-        } else if (readSide != null && !readSide.isAlive()) {
+        } else if (threadBound && readSide != null && !readSide.isAlive()) {
             throw new IOException("Read end dead");
         }
     }
 
-    // 等待。
+    // 在条件c上等待。调用方持有lock。
+    // 记录读写线程时，对方线程可能已经死掉而不会再发信号，所以只等LIVENESS_CHECK_MILLIS；
+    // 否则对方的每次状态变化(写入、读出、关闭、被回收)都会发信号，一直等到被唤醒即可
+    private void await(Condition c) throws IOException {
+        try {
+            if (threadBound) {
+                c.await(LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                c.await();
+            }
+        } catch (InterruptedException ex) {
+            throw new java.io.InterruptedIOException();
+        }
+    }
+
+    // 等待。调用方持有lock。
     // 若“写入管道”的数据正好全部被读取完(例如，管道缓冲满)，则执行awaitSpace()操作；
-    // 它的目的是让“读取管道的线程”管道产生读取数据请求，从而才能继续的向“管道”中写入数据。
+    // 在notFull上等待读线程读走数据。读线程每读出数据都会发信号，所以不需要轮询。
     private void awaitSpace() throws IOException {
-        
-        // 如果“管道中被读取的数据，等于写入管道的数据”时，
-        // 则每隔1000ms检查“管道状态”，并唤醒管道操作：若有“读取管道数据线程被阻塞”，则唤醒该线程。
-        while (in == out) {
-            checkStateForReceive();
+        PipeStats.Wait stall = null;
+        try {
+            while (in == out) {
+                checkStateForReceive();
+                // 异步读没有线程在等待，写线程自己把数据交给它们来腾出空间
+                if (completeAsyncReads()) {
+                    continue;
+                }
+                if (growOnStall()) {
+                    return;
+                }
 
-            /* full: kick any waiting readers */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
+                /* full: kick any waiting readers */
+                notEmpty.signal();
+                if (stall == null)
+                    stall = PipeStats.beginWait(stats, true);
+                await(notFull);
             }
+        } finally {
+            if (stall != null)
+                PipeStats.endWait(stats, stall, available0(), buffer.length);
         }
     }
 
     // 当PipedOutputStream被关闭时，被调用
-    synchronized void receivedLast() {
-        closedByWriter = true;
-        notifyAll();
+    void receivedLast() {
+        ArrayDeque<PendingRead> pending;
+        lock.lock();
+        try {
+            closedByWriter = true;
+            notEmpty.signalAll();
+            pending = takePendingReads();
+        } finally {
+            lock.unlock();
+        }
+        // 管道中没有数据时异步读才会排队，所以它们都读到EOF
+        finishAsyncReads(pending, null);
+    }
+
+    // 当PipedOutputStream没有close()就被GC回收时，被调用。
+    // 之后又改回线程绑定的管道仍按写线程是否存活判断
+    void writerAbandoned() {
+        ArrayDeque<PendingRead> pending = null;
+        lock.lock();
+        try {
+            if (!closedByWriter && !threadBound) {
+                writerLost = true;
+                notEmpty.signalAll();
+                pending = takePendingReads();
+            }
+        } finally {
+            lock.unlock();
+        }
+        finishAsyncReads(pending, new IOException("Pipe broken"));
+    }
+
+    // 当PipedOutputStream.flush()时，被调用：唤醒等待数据的读线程
+    void wakeReaders() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     // 从管道(的缓冲)中读取一个字节，并将其转换成int类型
-    public synchronized int read()  throws IOException {
+    public int read()  throws IOException {
+        lock.lock();
+        try {
+            return read0();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // read()的实现，调用方持有lock
+    private int read0()  throws IOException {
         if (!connected) {
             throw new IOException("Pipe not connected");
         } else if (closedByReader) {
             throw new IOException("Pipe closed");
-        } else if (writeSide != null && !writeSide.isAlive()
+        } else if (threadBound && writeSide != null && !writeSide.isAlive()
                    && !closedByWriter && (in < 0)) {
             throw new IOException("Write end dead");
         }
 
-        readSide = Thread.currentThread();
+        if (threadBound)
+            readSide = Thread.currentThread();
         int trials = 2;
-        while (in < 0) {
-            if (closedByWriter) {
-                /* closed by writer, return EOF */
-                return -1;
-            }
-            if ((writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
-                throw new IOException("Pipe broken");
-            }
-            /* might be a writer waiting */
-            notifyAll();
-            try {
-                wait(1000);
-            } catch (InterruptedException ex) {
-                throw new java.io.InterruptedIOException();
+        PipeStats.Wait wait = null;
+        try {
+            while (in < 0) {
+                if (closedByWriter) {
+                    /* closed by writer, return EOF */
+                    return -1;
+                }
+                if (writerLost) {
+                    throw new IOException("Pipe broken");
+                }
+                if (threadBound && (writeSide != null) && (!writeSide.isAlive()) && (--trials < 0)) {
+                    throw new IOException("Pipe broken");
+                }
+                /* might be a writer waiting */
+                notFull.signal();
+                if (wait == null)
+                    wait = PipeStats.beginWait(stats, false);
+                // 写线程写入数据后会发信号
+                await(notEmpty);
             }
+        } finally {
+            if (wait != null)
+                PipeStats.endWait(stats, wait, available0(), buffer.length);
         }
         int ret = buffer[out++] & 0xFF;
         if (out >= buffer.length) {
@@ -257,13 +588,16 @@ public class PipedInputStream extends InputStream {
         if (in == out) {
             /* now empty */
             in = -1;
+            shrinkIfIdle();
         }
+        // 腾出了空间，唤醒等待的写线程
+        notFull.signal();
 
         return ret;
     }
 
     // 从管道(的缓冲)中读取数据，并将其存入到数组b中
-    public synchronized int read(byte b[], int off, int len)  throws IOException {
+    public int read(byte b[], int off, int len)  throws IOException {
         if (b == null) {
             throw new NullPointerException();
         } else if (off < 0 || len < 0 || len > b.length - off) {
@@ -272,8 +606,18 @@ public class PipedInputStream extends InputStream {
             return 0;
         }
 
+        lock.lock();
+        try {
+            return read0(b, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // read(byte[],int,int)的实现，调用方持有lock
+    private int read0(byte b[], int off, int len)  throws IOException {
         /* possibly wait on the first character */
-        int c = read();
+        int c = read0();
         if (c < 0) {
             return -1;
         }
@@ -306,11 +650,175 @@ public class PipedInputStream extends InputStream {
                 in = -1;
             }
         }
+        if (in < 0) {
+            shrinkIfIdle();
+        }
+        notFull.signal();
         return rlen;
     }
 
+    // 不阻塞地读取：读取管道中现有的数据(最多len个字节)，管道为空时立即返回0。
+    // 管道为空并且“管道输出流”已经关闭时返回-1
+    public int tryRead(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+
+        lock.lock();
+        try {
+            checkStateForRead();
+            if (in < 0) {
+                if (closedByWriter) {
+                    return -1;
+                }
+                if (writerLost) {
+                    throw new IOException("Pipe broken");
+                }
+                return 0;
+            }
+            // 管道非空，read0不会等待
+            return read0(b, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 异步读取：把数据读入dst(最多dst.remaining()个字节)，返回的future在有数据时完成，
+    // 结果是读到的字节数，EOF时是-1。管道中已有数据时返回已经完成的future。
+    // 没有数据时由写线程在写入数据后完成future，回调在写线程中执行(不持有锁)，
+    // 应尽快返回，耗时的处理请用thenApplyAsync等交给其它线程。
+    // 读完一次再发起下一次readAsync，写线程就会在管道满时等待，形成按需读取的背压。
+    // 不要与阻塞的read()混用在同一个管道上。
+    public CompletableFuture<Integer> readAsync(ByteBuffer dst) {
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        PendingRead p = new PendingRead(dst);
+        if (!dst.hasRemaining()) {
+            p.future.complete(0);
+            return p.future;
+        }
+        lock.lock();
+        try {
+            // 刚创建的future上还没有回调，在锁内完成它是安全的
+            try {
+                checkStateForRead();
+            } catch (IOException x) {
+                p.future.completeExceptionally(x);
+                return p.future;
+            }
+            if (in >= 0) {
+                p.future.complete(drainTo(dst));
+            } else if (closedByWriter) {
+                p.future.complete(-1);
+            } else if (writerLost) {
+                p.future.completeExceptionally(new IOException("Pipe broken"));
+            } else {
+                if (pendingReads == null) {
+                    pendingReads = new ArrayDeque<PendingRead>();
+                }
+                pendingReads.addLast(p);
+            }
+            return p.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 读取前检查管道状态(不等待的读取)。调用方持有lock
+    private void checkStateForRead() throws IOException {
+        if (!connected) {
+            throw new IOException("Pipe not connected");
+        } else if (closedByReader) {
+            throw new IOException("Pipe closed");
+        }
+    }
+
+    // 把管道中的数据读入dst，直到管道读空或者dst读满，返回读取的字节数。调用方持有lock
+    private int drainTo(ByteBuffer dst) {
+        int n = 0;
+        while (in >= 0 && dst.hasRemaining()) {
+            int available = (in > out) ? in - out : buffer.length - out;
+            int k = Math.min(available, dst.remaining());
+            dst.put(buffer, out, k);
+            out += k;
+            n += k;
+            if (out >= buffer.length) {
+                out = 0;
+            }
+            if (in == out) {
+                /* now empty */
+                in = -1;
+            }
+        }
+        if (in < 0) {
+            shrinkIfIdle();
+        }
+        notFull.signal();
+        return n;
+    }
+
+    // 把管道中的数据交给排队的异步读，然后在锁外完成它们的future(回调可能再次调用readAsync)。
+    // 调用方持有lock，返回时仍持有lock，但中间释放过，管道状态可能已经改变。
+    // 返回false表示没有异步读可以完成
+    private boolean completeAsyncReads() {
+        if (pendingReads == null || pendingReads.isEmpty() || in < 0) {
+            return false;
+        }
+        ArrayList<PendingRead> done = new ArrayList<PendingRead>();
+        while (in >= 0 && !pendingReads.isEmpty()) {
+            PendingRead p = pendingReads.pollFirst();
+            p.n = drainTo(p.dst);
+            done.add(p);
+        }
+        lock.unlock();
+        try {
+            for (PendingRead p : done) {
+                p.future.complete(p.n);
+            }
+        } finally {
+            lock.lock();
+        }
+        return true;
+    }
+
+    // 取走所有排队的异步读。调用方持有lock
+    private ArrayDeque<PendingRead> takePendingReads() {
+        ArrayDeque<PendingRead> pending = pendingReads;
+        pendingReads = null;
+        return pending;
+    }
+
+    // 在锁外结束取走的异步读：x为null时读到EOF(-1)，否则以x异常结束
+    private static void finishAsyncReads(ArrayDeque<PendingRead> pending, IOException x) {
+        if (pending == null) {
+            return;
+        }
+        for (PendingRead p : pending) {
+            if (x == null) {
+                p.future.complete(-1);
+            } else {
+                p.future.completeExceptionally(x);
+            }
+        }
+    }
+
     // 返回不受阻塞地从此输入流中读取的字节数。
-    public synchronized int available() throws IOException {
+    public int available() throws IOException {
+        lock.lock();
+        try {
+            return available0();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 管道中的字节数，调用方持有lock
+    private int available0() {
         if(in < 0)
             return 0;
         else if(in == out)
@@ -322,10 +830,18 @@ public class PipedInputStream extends InputStream {
     }
 
     // 关闭管道输入流
+    // 唤醒等待空间的写线程，让它马上发现管道已关闭
     public void close()  throws IOException {
         closedByReader = true;
-        synchronized (this) {
+        ArrayDeque<PendingRead> pending;
+        lock.lock();
+        try {
             in = -1;
+            notFull.signalAll();
+            pending = takePendingReads();
+        } finally {
+            lock.unlock();
         }
+        finishAsyncReads(pending, new IOException("Pipe closed"));
     }
 }
\ No newline at end of file
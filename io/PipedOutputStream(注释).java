@@ -1,6 +1,14 @@
 package java.io;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import sun.misc.Cleaner;
 /*
 有一个PipedInputStream 私有域
 	两个构造函数 其中有一个是用来设置连接的
@@ -16,6 +24,31 @@ public class PipedOutputStream extends OutputStream {
     // 与PipedOutputStream通信的PipedInputStream对象
     private PipedInputStream sink;
 
+    // 保护connect、合并写缓冲区和flush的锁。
+    // 这些操作可能在sink.receive()中阻塞，用ReentrantLock而不是synchronized，
+    // 阻塞时只是park当前线程，不会占住监视器(在虚拟线程上也不会钉住载体线程)
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 合并写模式下暂存字节的本地缓冲区；为null表示没有开启合并写。
+    // write(int)每个字节都要调用一次sink.receive(b)：获取一次锁、检查一次管道状态、记录一次写线程。
+    // 开启合并写后，字节先攒在这里，攒满、flush()、close()时再通过receive(byte[],...)一次交给管道。
+    private volatile byte[] pending;
+    // pending中暂存的字节数
+    private int pendingCount;
+    // 暂存的第一个字节最多等待多久(纳秒)，0表示不限。
+    // 在之后的write中检查；写线程不再写时，由LingerTimer的线程到时交给管道
+    private long lingerNanos;
+    // 暂存第一个字节的时间
+    private long pendingSince;
+    // 是否已经安排了LingerTimer检查暂存的字节
+    private boolean lingerScheduled;
+
+    // 是否已经登记了“没有close()就被回收”的清理动作。受lock保护
+    private boolean watched;
+
+    // 管道满、交不出去时，LingerTimer隔多久再试(纳秒)
+    static final long LINGER_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     // 构造函数，指定配对的PipedInputStream
     public PipedOutputStream(PipedInputStream snk)  throws IOException {
         connect(snk);
@@ -26,7 +59,93 @@ public class PipedOutputStream extends OutputStream {
     }
 
     // 将“管道输出流” 和 “管道输入流”连接。
-    public synchronized void connect(PipedInputStream snk) throws IOException {
+    public void connect(PipedInputStream snk) throws IOException {
+        lock.lock();
+        try {
+            connect0(snk);
+        } finally {
+            lock.unlock();
+        }
+        if (!snk.threadBound) {
+            watchAbandoned();
+        }
+    }
+
+    // 本对象没有close()就被回收时，通知“管道输入流”不会再有数据写入。
+    // 只有不按线程判断断开的管道(setThreadBound(false))才需要：线程绑定的管道仍然由写线程是否存活判断，
+    // 不登记Cleaner，也不启动后台线程。在connect()或者PipedInputStream.setThreadBound(false)中调用，
+    // 可以重复调用。清理动作只引用sink，不引用本对象
+    void watchAbandoned() {
+        PipedInputStream snk;
+        lock.lock();
+        try {
+            if (watched || sink == null) {
+                return;
+            }
+            watched = true;
+            snk = sink;
+        } finally {
+            lock.unlock();
+        }
+        AbandonedStreams.watch(this, new WriterAbandoned(snk));
+    }
+
+    // 通知“管道输入流”写端已被回收。由AbandonedStreams的线程执行
+    private static class WriterAbandoned implements Runnable {
+        private final PipedInputStream sink;
+
+        WriterAbandoned(PipedInputStream sink) {
+            this.sink = sink;
+        }
+
+        public void run() {
+            sink.writerAbandoned();
+        }
+    }
+
+    // 管道的一端没有close()就被回收时，执行清理动作的后台线程，所有管道共享一个。
+    // Cleaner的动作在Reference Handler线程上执行：不能阻塞(管道的锁)，不能执行用户代码
+    // (异步读的回调)，抛出任何异常都会让虚拟机退出。所以Cleaner只把清理动作放进队列，由这个线程执行。
+    // BroadcastPipedOutputStream也用它检测被回收的读者
+    static final class AbandonedStreams implements Runnable {
+        private static final ConcurrentLinkedQueue<Runnable> queue =
+            new ConcurrentLinkedQueue<Runnable>();
+        private static final Thread thread = newThread();
+
+        private static Thread newThread() {
+            Thread t = new Thread(new AbandonedStreams(), "PipedOutputStream abandoned");
+            t.setDaemon(true);
+            t.start();
+            return t;
+        }
+
+        // stream变得不可达时，在这个线程上执行task，task不能引用stream。
+        // 在普通线程上调用，所以Cleaner的动作执行时这个类一定已经初始化
+        static void watch(Object stream, final Runnable task) {
+            Cleaner.create(stream, new Runnable() {
+                public void run() {
+                    queue.add(task);
+                    LockSupport.unpark(thread);
+                }
+            });
+        }
+
+        public void run() {
+            for (;;) {
+                Runnable task;
+                while ((task = queue.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        // 异步读的回调抛出的异常不能让这个线程退出
+                    }
+                }
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void connect0(PipedInputStream snk) throws IOException {
         if (snk == null) {
             throw new NullPointerException();
         } else if (sink != null || snk.connected) {
@@ -34,6 +153,8 @@ public class PipedOutputStream extends OutputStream {
         }
         // 设置“管道输入流”
         sink = snk;
+        // setThreadBound(false)通过它登记回收时的清理动作；弱引用，不妨碍本对象被回收
+        snk.source = new WeakReference<PipedOutputStream>(this);
         // 初始化“管道输入流”的读写位置
         // int是PipedInputStream中定义的，代表“管道输入流”的读写位置
         snk.in = -1;
@@ -45,15 +166,201 @@ public class PipedOutputStream extends OutputStream {
         snk.connected = true;
     }
 
+    // 开启合并写：字节先暂存在大小为bufferSize的本地缓冲区中，
+    // 攒满、flush()、close()时，或者暂存的第一个字节已经等了linger时间时，一次交给管道。
+    // linger到时写线程没有再写，由一个共享的后台线程交给管道，它不会阻塞：管道放不下的部分稍后再试。
+    // linger为0表示只在攒满、flush()、close()时交给管道，
+    // 这时写完一批数据后需要flush()，读线程才能读到最后不满一个缓冲区的数据。
+    public void setCoalescing(int bufferSize, long linger, TimeUnit unit)
+            throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        if (linger < 0) {
+            throw new IllegalArgumentException("Negative linger");
+        }
+        lock.lock();
+        try {
+            publish();
+            pending = new byte[bufferSize];
+            lingerNanos = unit.toNanos(linger);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 关闭合并写，暂存的字节先交给管道
+    public void clearCoalescing() throws IOException {
+        lock.lock();
+        try {
+            publish();
+            pending = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 把暂存的字节一次交给管道。调用方持有lock
+    private void publish() throws IOException {
+        if (pendingCount > 0) {
+            int n = pendingCount;
+            pendingCount = 0;
+            sink.receive(pending, 0, n);
+        }
+    }
+
+    // 暂存了数据之后：若暂存的第一个字节已经等得太久，就交给管道；
+    // 否则确保LingerTimer会在到时的时候检查。调用方持有lock
+    private void publishIfLingered() throws IOException {
+        if (lingerNanos > 0 && pendingCount > 0) {
+            long waited = System.nanoTime() - pendingSince;
+            if (waited >= lingerNanos) {
+                publish();
+            } else if (!lingerScheduled) {
+                lingerScheduled = true;
+                LingerTimer.schedule(this, lingerNanos - waited);
+            }
+        }
+    }
+
+    // LingerTimer的线程调用：暂存的第一个字节已经等了lingerNanos，写线程却没有再写。
+    // 这个线程不能阻塞，所以只tryLock，并且只把管道当前放得下的字节交给它。
+    // BroadcastPipedOutputStream覆盖这个方法，发布它自己的环形缓冲区
+    void publishLingered() {
+        if (!lock.tryLock()) {
+            // 写线程正在写(或者在receive中等待空间)，稍后再看
+            LingerTimer.schedule(this, Math.max(lingerNanos, LINGER_RETRY_NANOS));
+            return;
+        }
+        try {
+            lingerScheduled = false;
+            if (pending == null || pendingCount == 0 || lingerNanos == 0) {
+                return;
+            }
+            long left = pendingSince + lingerNanos - System.nanoTime();
+            if (left > 0) {
+                // 上次检查之后又暂存了新的一批
+                lingerScheduled = true;
+                LingerTimer.schedule(this, left);
+                return;
+            }
+            int n = sink.offer(pending, 0, pendingCount);
+            pendingCount -= n;
+            if (pendingCount > 0) {
+                // 管道满了：剩下的挪到开头，等读线程读走一些再试
+                System.arraycopy(pending, n, pending, 0, pendingCount);
+                lingerScheduled = true;
+                LingerTimer.schedule(this, LINGER_RETRY_NANOS);
+            }
+        } catch (IOException e) {
+            // 管道已关闭或断开：字节留在pending中，写线程下一次write/flush/close时会得到异常
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 到时检查暂存字节的后台线程，所有PipedOutputStream共享一个，第一次用到时才创建。
+    // 安排的任务引用着输出流，所以最多在linger时间内推迟它被回收
+    static final class LingerTimer {
+        private static final ScheduledThreadPoolExecutor EXECUTOR = newExecutor();
+
+        private static ScheduledThreadPoolExecutor newExecutor() {
+            ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PipedOutputStream linger");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            e.setRemoveOnCancelPolicy(true);
+            return e;
+        }
+
+        static void schedule(final PipedOutputStream out, long delayNanos) {
+            EXECUTOR.schedule(new Runnable() {
+                public void run() {
+                    out.publishLingered();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
     // 将int类型b写入“管道输出流”中。
     // 将b写入“管道输出流”之后，它会将b传输给“管道输入流”
     public void write(int b)  throws IOException {
         if (sink == null) {
             throw new IOException("Pipe not connected");
         }
+        if (pending != null) {
+            writeCoalesced(b);
+            return;
+        }
         sink.receive(b);
     }
 
+    // 合并写模式下写入一个字节
+    private void writeCoalesced(int b) throws IOException {
+        lock.lock();
+        try {
+            writeCoalesced0(b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeCoalesced0(int b) throws IOException {
+        byte[] buf = pending;
+        if (buf == null) {
+            sink.receive(b);//合并写刚被关闭
+            return;
+        }
+        if (pendingCount == 0 && lingerNanos > 0) {
+            pendingSince = System.nanoTime();
+        }
+        buf[pendingCount++] = (byte)b;
+        if (pendingCount == buf.length) {
+            publish();
+        } else {
+            publishIfLingered();
+        }
+    }
+
+    // 合并写模式下写入字节数组b。顺序不变：暂存的字节总是先于后面的数据交给管道
+    private void writeCoalesced(byte b[], int off, int len)
+            throws IOException {
+        lock.lock();
+        try {
+            writeCoalesced0(b, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeCoalesced0(byte b[], int off, int len)
+            throws IOException {
+        byte[] buf = pending;
+        if (buf != null && len < buf.length) {
+            if (len > buf.length - pendingCount) {
+                publish();
+            }
+            if (pendingCount == 0 && lingerNanos > 0) {
+                pendingSince = System.nanoTime();
+            }
+            System.arraycopy(b, off, buf, pendingCount, len);
+            pendingCount += len;
+            if (pendingCount == buf.length) {
+                publish();
+            } else {
+                publishIfLingered();
+            }
+            return;
+        }
+        // 比本地缓冲区还大的数据，直接交给管道
+        publish();
+        sink.receive(b, off, len);
+    }
+
     // 将字节数组b写入“管道输出流”中。
     // 将数组b写入“管道输出流”之后，它会将其传输给“管道输入流”
     public void write(byte b[], int off, int len) throws IOException {
@@ -67,26 +374,41 @@ public class PipedOutputStream extends OutputStream {
         } else if (len == 0) {
             return;
         }
+        if (pending != null) {
+            writeCoalesced(b, off, len);
+            return;
+        }
         // “管道输入流”接收数据
         sink.receive(b, off, len);
     }
 
     // 清空“管道输出流”。
-    // 这里会调用“管道输入流”的notifyAll()；
-    // 目的是让“管道输入流”放弃对当前资源的占有，让其它的等待线程(等待读取管道输出流的线程)读取“管道输出流”的值。
-    public synchronized void flush() throws IOException {
-        if (sink != null) {
-            synchronized (sink) {
-                sink.notifyAll();
+    // 这里会唤醒在“管道输入流”上等待数据的读线程。
+    // receive()每次写入数据后已经会唤醒读线程，这里保留是为了兼容依赖flush()唤醒的调用方。
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            if (sink != null) {
+                publish();
+                sink.wakeReaders();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
     // 关闭“管道输出流”。
     // 关闭之后，会调用receivedLast()通知“管道输入流”它已经关闭。
+    // 合并写模式下，暂存的字节先交给管道
     public void close()  throws IOException {
         if (sink != null) {
-            sink.receivedLast();
+            lock.lock();
+            try {
+                publish();
+            } finally {
+                lock.unlock();
+                sink.receivedLast();
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,372 @@
+package java.io;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import sun.misc.Unsafe;
+import sun.nio.ch.DirectBuffer;
+
+/*
+SharedMemoryPipe 跨进程的共享内存管道
+	PipedInputStream/PipedOutputStream只能在同一个JVM中使用，
+	进程之间通过本地socket交换数据要经过内核复制。
+	这里把一个文件(通常在/dev/shm下，即内存文件系统)映射到两个进程的地址空间，
+	在映射的内存中放一个环形缓冲区，一个进程写，一个进程读，数据不经过内核。
+
+	文件布局(字节偏移)：
+		0   MAGIC      魔数
+		4   CAPACITY   环形缓冲区大小
+		64  HEAD       读取的总字节数，只有读进程修改(与TAIL不在同一缓存行)
+		128 TAIL       写入的总字节数，只有写进程修改
+		192 WRITER_STATE  写端状态：0未连接 1已连接 2已关闭
+		196 READER_STATE  读端状态：同上
+		256 DATA       环形缓冲区
+
+	与Piped类的语义一致：
+		read()  管道为空时等待；写端关闭并且读完后返回-1；写端进程死掉抛出"Write end dead"
+		write() 管道满时等待；读端关闭后抛出"Pipe closed"；读端进程死掉抛出"Read end dead"
+	进程死掉的检测：每一端连接时对文件中属于自己的一个字节加排它锁(FileLock)，进程退出时操作系统会释放它。
+	另一端等待时定期tryLock这个字节，若能锁上，说明对方进程已经不在了。
+
+	等待方式类似futex：先自旋，然后yield，然后park，park的时间逐渐加长(最长1ms)。
+	Java中没有跨进程的futex，所以对方进程无法唤醒我们，只能靠短暂的睡眠。
+*/
+public final class SharedMemoryPipe implements Closeable {
+
+    private static final int MAGIC = 0x50495045;        // "PIPE"
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int HEAD_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+    private static final int WRITER_STATE_OFFSET = 192;
+    private static final int READER_STATE_OFFSET = 196;
+    private static final int DATA_OFFSET = 256;
+
+    // 端的状态
+    private static final int DETACHED = 0;
+    private static final int ATTACHED = 1;
+    private static final int CLOSED = 2;
+
+    // 用来检测进程是否存活的锁，锁的是文件中的这两个字节
+    private static final long WRITER_LOCK_POSITION = WRITER_STATE_OFFSET;
+    private static final long READER_LOCK_POSITION = READER_STATE_OFFSET;
+
+    // 等待：先自旋SPIN_TRIES次，再yield YIELD_TRIES次，再park(从MIN_PARK_NANOS开始翻倍到MAX_PARK_NANOS)
+    private static final int SPIN_TRIES = 1 << 10;
+    private static final int YIELD_TRIES = 64;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // park期间，每隔多久检查一次对方进程是否存活
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Unsafe unsafe = Unsafe.getUnsafe();
+    private static final long BYTE_ARRAY_OFFSET = unsafe.arrayBaseOffset(byte[].class);
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    // 映射必须一直被引用，否则会被回收，address就失效了
+    private final MappedByteBuffer map;
+    private final long address;
+    private final int capacity;
+
+    private SharedMemoryPipe(RandomAccessFile file, MappedByteBuffer map,
+                             int capacity) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.map = map;
+        this.address = ((DirectBuffer)map).address();
+        this.capacity = capacity;
+    }
+
+    // 创建一个缓冲区大小为capacity的管道文件(已存在的同名文件会被覆盖)，通常放在/dev/shm下
+    public static SharedMemoryPipe create(File path, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pipe Size <= 0");
+        }
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(DATA_OFFSET + (long)capacity);
+            MappedByteBuffer mbb = raf.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + (long)capacity);
+            SharedMemoryPipe pipe = new SharedMemoryPipe(raf, mbb, capacity);
+            unsafe.putInt(pipe.address + CAPACITY_OFFSET, capacity);
+            unsafe.putLongVolatile(null, pipe.address + HEAD_OFFSET, 0);
+            unsafe.putLongVolatile(null, pipe.address + TAIL_OFFSET, 0);
+            unsafe.putIntVolatile(null, pipe.address + WRITER_STATE_OFFSET, DETACHED);
+            unsafe.putIntVolatile(null, pipe.address + READER_STATE_OFFSET, DETACHED);
+            // 最后写魔数：另一个进程看到魔数时，其它字段都已经初始化好了
+            unsafe.putIntVolatile(null, pipe.address + MAGIC_OFFSET, MAGIC);
+            return pipe;
+        } catch (IOException | RuntimeException x) {
+            raf.close();
+            throw x;
+        }
+    }
+
+    // 打开另一个进程用create()创建的管道文件
+    public static SharedMemoryPipe open(File path) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            long size = raf.length();
+            if (size <= DATA_OFFSET || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a shared memory pipe: " + path);
+            }
+            MappedByteBuffer mbb = raf.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, size);
+            long addr = ((DirectBuffer)mbb).address();
+            if (unsafe.getIntVolatile(null, addr + MAGIC_OFFSET) != MAGIC
+                    || unsafe.getInt(addr + CAPACITY_OFFSET) != size - DATA_OFFSET) {
+                throw new IOException("Not a shared memory pipe: " + path);
+            }
+            return new SharedMemoryPipe(raf, mbb, (int)(size - DATA_OFFSET));
+        } catch (IOException | RuntimeException x) {
+            raf.close();
+            throw x;
+        }
+    }
+
+    // 连接写端。一个管道只能有一个写端
+    public OutputStream openOutputStream() throws IOException {
+        FileLock lock = attach(WRITER_STATE_OFFSET, WRITER_LOCK_POSITION);
+        return new PipeOutputStream(lock);
+    }
+
+    // 连接读端。一个管道只能有一个读端
+    public InputStream openInputStream() throws IOException {
+        FileLock lock = attach(READER_STATE_OFFSET, READER_LOCK_POSITION);
+        return new PipeInputStream(lock);
+    }
+
+    // 关闭映射文件。进程退出时，没关闭的端持有的锁也会被释放，另一端据此发现它已经死掉
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // 锁住属于这一端的字节，并把状态设为已连接
+    private FileLock attach(int stateOffset, long lockPosition) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock(lockPosition, 1, false);
+        } catch (OverlappingFileLockException x) {
+            lock = null;//本进程已经连接了这一端
+        }
+        if (lock == null) {
+            throw new IOException("Already connected");
+        }
+        if (!unsafe.compareAndSwapInt(null, address + stateOffset, DETACHED, ATTACHED)) {
+            lock.release();
+            throw new IOException("Already connected");
+        }
+        return lock;
+    }
+
+    // 对方进程是否还活着：对方连接后一直持有它的锁，能锁上说明它已经死掉了
+    private boolean peerAlive(int stateOffset, long lockPosition) throws IOException {
+        if (unsafe.getIntVolatile(null, address + stateOffset) != ATTACHED) {
+            return true;//还没连接，或者已经正常关闭，都不算死掉
+        }
+        FileLock probe;
+        try {
+            probe = channel.tryLock(lockPosition, 1, false);
+        } catch (OverlappingFileLockException x) {
+            return true;//对方在同一个JVM中，并且还持有锁
+        }
+        if (probe == null) {
+            return true;
+        }
+        probe.release();
+        return false;
+    }
+
+    private long head() {
+        return unsafe.getLongVolatile(null, address + HEAD_OFFSET);
+    }
+
+    private long tail() {
+        return unsafe.getLongVolatile(null, address + TAIL_OFFSET);
+    }
+
+    private int state(int stateOffset) {
+        return unsafe.getIntVolatile(null, address + stateOffset);
+    }
+
+    // 在环形缓冲区的pos位置和数组b之间复制n个字节，处理绕回
+    private void copy(long pos, byte b[], int off, int n, boolean toRing) {
+        int idx = (int)(pos % capacity);
+        int first = Math.min(n, capacity - idx);
+        long ring = address + DATA_OFFSET;
+        if (toRing) {
+            unsafe.copyMemory(b, BYTE_ARRAY_OFFSET + off, null, ring + idx, first);
+            if (n > first) {
+                unsafe.copyMemory(b, BYTE_ARRAY_OFFSET + off + first, null, ring, n - first);
+            }
+        } else {
+            unsafe.copyMemory(null, ring + idx, b, BYTE_ARRAY_OFFSET + off, first);
+            if (n > first) {
+                unsafe.copyMemory(null, ring, b, BYTE_ARRAY_OFFSET + off + first, n - first);
+            }
+        }
+    }
+
+    // 一次等待的退避状态：自旋、yield、逐渐加长的park，并定期检查对方进程是否存活
+    private final class Backoff {
+        private int tries;
+        private long parkNanos = MIN_PARK_NANOS;
+        private long parkedSinceCheck;
+
+        // 返回false表示对方进程已经死掉
+        boolean pause(int peerStateOffset, long peerLockPosition) throws IOException {
+            if (tries < SPIN_TRIES) {
+                tries++;
+                return true;
+            }
+            if (tries < SPIN_TRIES + YIELD_TRIES) {
+                tries++;
+                Thread.yield();
+                return true;
+            }
+            LockSupport.parkNanos(parkNanos);
+            if (Thread.interrupted()) {
+                throw new java.io.InterruptedIOException();
+            }
+            parkedSinceCheck += parkNanos;
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+            if (parkedSinceCheck >= LIVENESS_CHECK_NANOS) {
+                parkedSinceCheck = 0;
+                return peerAlive(peerStateOffset, peerLockPosition);
+            }
+            return true;
+        }
+    }
+
+    // 写端
+    private final class PipeOutputStream extends OutputStream {
+        private final FileLock lock;
+        private boolean closed;
+
+        PipeOutputStream(FileLock lock) {
+            this.lock = lock;
+        }
+
+        private void checkStateForReceive() throws IOException {
+            if (closed || state(READER_STATE_OFFSET) == CLOSED) {
+                throw new IOException("Pipe closed");
+            }
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        public synchronized void write(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (off > b.length) || (len < 0) ||
+                       ((off + len) > b.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            checkStateForReceive();
+            long t = tail();
+            while (len > 0) {
+                int free = capacity - (int)(t - head());
+                if (free == 0) {
+                    // 管道满了，等读端读走数据
+                    Backoff backoff = new Backoff();
+                    while (t - head() == capacity) {
+                        checkStateForReceive();
+                        if (!backoff.pause(READER_STATE_OFFSET, READER_LOCK_POSITION)) {
+                            throw new IOException("Read end dead");
+                        }
+                    }
+                    continue;
+                }
+                int n = Math.min(free, len);
+                copy(t, b, off, n, true);
+                t += n;
+                // 先写数据，再发布tail：读端看到新的tail时，数据一定已经写好了
+                unsafe.putOrderedLong(null, address + TAIL_OFFSET, t);
+                off += n;
+                len -= n;
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                unsafe.putIntVolatile(null, address + WRITER_STATE_OFFSET, CLOSED);
+                lock.release();
+            }
+        }
+    }
+
+    // 读端
+    private final class PipeInputStream extends InputStream {
+        private final FileLock lock;
+        private boolean closed;
+
+        PipeInputStream(FileLock lock) {
+            this.lock = lock;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n < 0) ? -1 : b[0] & 0xFF;
+        }
+
+        public synchronized int read(byte b[], int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            long h = head();
+            long t = tail();
+            if (t == h) {
+                Backoff backoff = new Backoff();
+                while ((t = tail()) == h) {
+                    if (state(WRITER_STATE_OFFSET) == CLOSED) {
+                        // 写端关闭前写入的数据都已经发布，再确认一次
+                        if ((t = tail()) == h) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    if (!backoff.pause(WRITER_STATE_OFFSET, WRITER_LOCK_POSITION)) {
+                        throw new IOException("Write end dead");
+                    }
+                }
+            }
+            int n = (int)Math.min(t - h, len);
+            copy(h, b, off, n, false);
+            // 先读走数据，再发布head：写端看到新的head时才会覆盖这部分
+            unsafe.putOrderedLong(null, address + HEAD_OFFSET, h + n);
+            return n;
+        }
+
+        public synchronized int available() throws IOException {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            return (int)(tail() - head());
+        }
+
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                unsafe.putIntVolatile(null, address + READER_STATE_OFFSET, CLOSED);
+                lock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package java.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+SpscPipedInputStream 单生产者单消费者的无锁管道输入流
+	PipedInputStream的每个receive和read都要获取同一把锁，
+	即使读线程和写线程操作的是缓冲区的不同区域，也只能串行执行。
+	这里假设只有一个写线程和一个读线程(单生产者单消费者)：
+		tail 下一个写入位置，只有写线程修改
+		head 下一个读取位置，只有读线程修改
+	两者都是只增不减的long计数器，用 tail - head 表示管道中的字节数，
+	不再需要 in == -1 这种表示“管道为空”的特殊编码。
+	两个计数器用@Contended隔开，避免读写线程在同一缓存行上互相干扰(伪共享)。
+
+	等待时先自旋一会儿，再park；对方推进计数器之后，若发现有线程在park就unpark它。
+	只有一个CPU时不自旋：对方线程此时不可能在运行，自旋只是白白用掉自己的时间片。
+	unpark之前用CAS取走park的线程，同一次park只unpark一次：
+	单CPU上被唤醒的线程要等当前线程让出CPU才能运行，不取走的话，之间的每次发布都会再unpark一次(一次系统调用)。
+
+	与PipedOutputStream配合使用的方式不变：
+		PipedOutputStream out = new PipedOutputStream();
+		PipedInputStream in = new SpscPipedInputStream(out, 64 * 1024);
+	PipedOutputStream调用的receive()、receivedLast()都在这里被重写。
+	多个线程同时写(或同时读)时结果不确定，这种场景请使用PipedInputStream。
+
+	readAsync：只有一个消费者，所以同时最多有一个没有完成的异步读，放在waiter中。
+	写线程每次发布数据(以及关闭、被回收)之后检查waiter，用CAS把它换成COMPLETING，
+	替读线程读取数据，清空waiter，再完成future。waiter为COMPLETING期间写线程暂时是唯一的消费者，
+	读线程的read、tryRead、readAsync都先等它结束，才会读取head，所以同一段数据不会被读两次。
+*/
+public class SpscPipedInputStream extends PipedInputStream {
+
+    // 放弃自旋、开始park之前自旋的次数。只有一个CPU时为0
+    private static final int SPIN_TRIES =
+        (Runtime.getRuntime().availableProcessors() > 1) ? 1 << 10 : 0;
+
+    // park的最长时间。对方线程可能已经死掉而不会再unpark，所以定期醒来检查一下
+    private static final long LIVENESS_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // buffer.length - 1，缓冲区大小是2的幂
+    private final int mask;
+
+    // 下一个读取位置，只有读线程修改
+    @sun.misc.Contended("head")
+    private volatile long head;
+
+    // 下一个写入位置，只有写线程修改
+    @sun.misc.Contended("tail")
+    private volatile long tail;
+
+    // 正在park等待数据的读线程 / 正在park等待空间的写线程。
+    // 由对方线程用CAS取走并unpark，只有park的线程自己设置
+    private final AtomicReference<Thread> parkedReader = new AtomicReference<Thread>();
+    private final AtomicReference<Thread> parkedWriter = new AtomicReference<Thread>();
+
+    // “管道输出流”是否关闭。父类的closedByWriter不是volatile，这里无锁读取，需要单独的标记
+    private volatile boolean writerClosed;
+
+    // 没有完成的异步读，最多一个；COMPLETING表示写线程正在替它读取
+    private final AtomicReference<AsyncRead> waiter = new AtomicReference<AsyncRead>();
+
+    // waiter的特殊值：写线程已经取走异步读，正在读取管道
+    private static final AsyncRead COMPLETING = new AsyncRead(null);
+
+    private static final class AsyncRead {
+        final ByteBuffer dst;
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+        AsyncRead(ByteBuffer dst) {
+            this.dst = dst;
+        }
+    }
+
+    // 构造函数：缓冲区大小是1024字节
+    public SpscPipedInputStream() {
+        this(PIPE_SIZE);
+    }
+
+    // 构造函数：缓冲区大小是不小于pipeSize的2的幂
+    public SpscPipedInputStream(int pipeSize) {
+        super(ringSize(pipeSize));
+        mask = buffer.length - 1;
+    }
+
+    // 构造函数：指定与之连接的“管道输出流”，缓冲区大小是1024字节
+    public SpscPipedInputStream(PipedOutputStream src) throws IOException {
+        this(src, PIPE_SIZE);
+    }
+
+    // 构造函数：指定与之连接的“管道输出流”，缓冲区大小是不小于pipeSize的2的幂
+    public SpscPipedInputStream(PipedOutputStream src, int pipeSize)
+            throws IOException {
+        this(pipeSize);
+        connect(src);
+    }
+
+    // 把pipeSize向上取整到2的幂，这样下标可以用 & mask 计算
+    private static int ringSize(int pipeSize) {
+        if (pipeSize <= 0) {
+            throw new IllegalArgumentException("Pipe Size <= 0");
+        }
+        if (pipeSize > (1 << 30)) {
+            throw new IllegalArgumentException("Pipe Size too large");
+        }
+        return (pipeSize == 1) ? 1 : Integer.highestOneBit(pipeSize - 1) << 1;
+    }
+
+    // 检查管道状态(写线程调用)
+    private void checkStateForReceive() throws IOException {
+        if (!connected) {
+            throw new IOException("Pipe not connected");
+        } else if (writerClosed || closedByReader) {
+            throw new IOException("Pipe closed");
+        } else if (threadBound && readSide != null && !readSide.isAlive()) {
+            throw new IOException("Read end dead");
+        }
+    }
+
+    // 接收一个字节(写线程调用)
+    protected void receive(int b) throws IOException {
+        checkStateForReceive();
+        if (threadBound)
+            writeSide = Thread.currentThread();
+        long t = tail;
+        if (t - head == buffer.length) {
+            awaitSpace(t);
+        }
+        buffer[(int)t & mask] = (byte)b;
+        tail = t + 1;
+        unparkReader();
+    }
+
+    // 接收字节数组b(写线程调用)。
+    // 每次把当前能放下的部分复制进去并发布，读线程可以同时读已发布的部分
+    void receive(byte b[], int off, int len) throws IOException {
+        checkStateForReceive();
+        if (threadBound)
+            writeSide = Thread.currentThread();
+        int capacity = buffer.length;
+        while (len > 0) {
+            long t = tail;
+            int free = capacity - (int)(t - head);
+            if (free == 0) {
+                awaitSpace(t);
+                continue;
+            }
+            int n = Math.min(free, len);
+            int idx = (int)t & mask;
+            int first = Math.min(n, capacity - idx);
+            System.arraycopy(b, off, buffer, idx, first);
+            if (n > first) {
+                System.arraycopy(b, off + first, buffer, 0, n - first);
+            }
+            tail = t + n;//发布：读线程看到新的tail时，一定也能看到复制进去的数据
+            unparkReader();
+            off += n;
+            len -= n;
+        }
+    }
+
+    // 不等待地接收字节数组b：只复制环形缓冲区当前放得下的部分，返回复制的字节数。
+    // 由PipedOutputStream的linger线程调用，这时它持有写端的锁，是唯一的生产者
+    int offer(byte b[], int off, int len) throws IOException {
+        checkStateForReceive();
+        int capacity = buffer.length;
+        long t = tail;
+        int n = Math.min(capacity - (int)(t - head), len);
+        if (n == 0) {
+            return 0;
+        }
+        int idx = (int)t & mask;
+        int first = Math.min(n, capacity - idx);
+        System.arraycopy(b, off, buffer, idx, first);
+        if (n > first) {
+            System.arraycopy(b, off + first, buffer, 0, n - first);
+        }
+        tail = t + n;
+        unparkReader();
+        return n;
+    }
+
+    // 等待读线程腾出空间：先自旋，再park
+    private void awaitSpace(long t) throws IOException {
+        int spins = SPIN_TRIES;
+        while (t - head == buffer.length) {
+            checkStateForReceive();
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            parkedWriter.set(Thread.currentThread());
+            if (t - head == buffer.length) {
+                LockSupport.parkNanos(this, LIVENESS_CHECK_NANOS);
+            }
+            parkedWriter.set(null);
+            if (Thread.interrupted()) {
+                throw new java.io.InterruptedIOException();
+            }
+        }
+    }
+
+    private void unparkReader() {
+        Thread r = parkedReader.get();
+        if (r != null && parkedReader.compareAndSet(r, null)) {
+            LockSupport.unpark(r);
+        }
+        AsyncRead w = waiter.get();
+        if (w != null && w != COMPLETING) {
+            completeWaiter();
+        }
+    }
+
+    // 有数据、EOF或者管道断开时，取走等待中的异步读并完成它。
+    // 写线程发布之后调用，读线程登记waiter之后也调用一次(防止错过写线程的检查)
+    private void completeWaiter() {
+        AsyncRead w = waiter.get();
+        if (w == null || w == COMPLETING || (tail == head && !writerClosed && !writerLost)) {
+            return;
+        }
+        if (!waiter.compareAndSet(w, COMPLETING)) {
+            return;
+        }
+        int n = 0;
+        IOException x = null;
+        if (tail != head) {
+            n = drainTo(w.dst);
+        } else if (writerClosed) {
+            n = -1;
+        } else {
+            x = new IOException("Pipe broken");
+        }
+        // 读完再让出位置；在完成future之前让出，回调中可以立即发起下一次readAsync
+        waiter.set(null);
+        if (x == null) {
+            w.future.complete(n);
+        } else {
+            w.future.completeExceptionally(x);
+        }
+    }
+
+    // 等待写线程结束正在替异步读进行的读取(waiter为COMPLETING)。
+    // 返回时写线程已经不再读取管道，返回值是还没有完成的异步读，没有时为null
+    private AsyncRead awaitCompletion() {
+        AsyncRead w;
+        while ((w = waiter.get()) == COMPLETING) {
+            Thread.yield();//只是一次有界的复制，很快结束
+        }
+        return w;
+    }
+
+    // 阻塞读之前检查：不能与没有完成的异步读同时读取(两者都是消费者)
+    private void checkNoAsyncRead() {
+        if (awaitCompletion() != null) {
+            throw new IllegalStateException("Async read pending");
+        }
+    }
+
+    // 把管道中的数据读入dst，直到管道读空或者dst读满，返回读取的字节数。
+    // 调用方是当前唯一的消费者
+    private int drainTo(ByteBuffer dst) {
+        long h = head;
+        int n = (int)Math.min(tail - h, dst.remaining());
+        int idx = (int)h & mask;
+        int first = Math.min(n, buffer.length - idx);
+        dst.put(buffer, idx, first);
+        if (n > first) {
+            dst.put(buffer, 0, n - first);
+        }
+        head = h + n;
+        unparkWriter();
+        return n;
+    }
+
+    private void unparkWriter() {
+        Thread w = parkedWriter.get();
+        if (w != null && parkedWriter.compareAndSet(w, null)) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    // 当PipedOutputStream被关闭时，被调用
+    void receivedLast() {
+        closedByWriter = true;
+        writerClosed = true;
+        unparkReader();
+    }
+
+    // 当PipedOutputStream没有close()就被GC回收时，被调用
+    void writerAbandoned() {
+        if (!writerClosed && !threadBound) {
+            writerLost = true;
+            unparkReader();
+        }
+    }
+
+    // 当PipedOutputStream.flush()时，被调用
+    void wakeReaders() {
+        unparkReader();
+    }
+
+    // 等待数据(读线程调用)：先自旋，再park。
+    // 返回false表示管道为空并且“管道输出流”已经关闭(EOF)
+    private boolean awaitData() throws IOException {
+        if (!connected) {
+            throw new IOException("Pipe not connected");
+        } else if (closedByReader) {
+            throw new IOException("Pipe closed");
+        }
+        if (threadBound)
+            readSide = Thread.currentThread();
+        int spins = SPIN_TRIES;
+        while (tail == head) {
+            if (writerClosed) {
+                // 关闭之前写入的数据都已经发布，再确认一次是否为空
+                return tail != head;
+            }
+            if (writerLost) {
+                throw new IOException("Pipe broken");
+            }
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            parkedReader.set(Thread.currentThread());
+            if (tail == head && !writerClosed && !writerLost) {
+                LockSupport.parkNanos(this, LIVENESS_CHECK_NANOS);
+                if (threadBound && tail == head && !writerClosed
+                        && writeSide != null && !writeSide.isAlive()) {
+                    parkedReader.set(null);
+                    throw new IOException("Pipe broken");
+                }
+            }
+            parkedReader.set(null);
+            if (Thread.interrupted()) {
+                throw new java.io.InterruptedIOException();
+            }
+        }
+        return true;
+    }
+
+    // 读取一个字节
+    public int read() throws IOException {
+        checkNoAsyncRead();
+        if (!awaitData()) {
+            return -1;
+        }
+        long h = head;
+        int ret = buffer[(int)h & mask] & 0xFF;
+        head = h + 1;
+        unparkWriter();
+        return ret;
+    }
+
+    // 读取数据到数组b中：至少读1个字节(必要时等待)，最多读len个字节
+    public int read(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        checkNoAsyncRead();
+        if (!awaitData()) {
+            return -1;
+        }
+        long h = head;
+        int n = (int)Math.min(tail - h, len);
+        int idx = (int)h & mask;
+        int first = Math.min(n, buffer.length - idx);
+        System.arraycopy(buffer, idx, b, off, first);
+        if (n > first) {
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+        }
+        head = h + n;
+        unparkWriter();
+        return n;
+    }
+
+    // 不阻塞地读取：管道为空时立即返回0，管道为空并且“管道输出流”已经关闭时返回-1
+    public int tryRead(byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        if (!connected) {
+            throw new IOException("Pipe not connected");
+        } else if (closedByReader) {
+            throw new IOException("Pipe closed");
+        }
+        checkNoAsyncRead();
+        if (tail == head) {
+            if (writerClosed) {
+                // 关闭之前写入的数据都已经发布，再确认一次是否为空
+                if (tail == head) {
+                    return -1;
+                }
+            } else if (writerLost) {
+                throw new IOException("Pipe broken");
+            } else {
+                return 0;
+            }
+        }
+        return read(b, off, len);
+    }
+
+    // 异步读取：与PipedInputStream.readAsync相同，没有数据时由写线程在发布数据后完成future，
+    // 回调在写线程中执行。
+    // 与PipedInputStream不同的是：PipedInputStream把多个没有完成的异步读排队，依次完成；
+    // 这里只有一个消费者，同时只能有一个没有完成的异步读，再调用readAsync会抛出IllegalStateException。
+    // 在回调中发起下一次readAsync是可以的(调用回调之前已经让出了位置)。
+    // 有没有完成的异步读时，read()、tryRead()同样抛出IllegalStateException
+    public CompletableFuture<Integer> readAsync(ByteBuffer dst) {
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        AsyncRead p = new AsyncRead(dst);
+        if (!dst.hasRemaining()) {
+            p.future.complete(0);
+            return p.future;
+        }
+        if (!connected) {
+            p.future.completeExceptionally(new IOException("Pipe not connected"));
+            return p.future;
+        } else if (closedByReader) {
+            p.future.completeExceptionally(new IOException("Pipe closed"));
+            return p.future;
+        }
+        // 先确认没有别的异步读，否则直接读取会抢走它的数据
+        if (awaitCompletion() != null) {
+            throw new IllegalStateException("Async read already pending");
+        }
+        if (tail != head) {
+            p.future.complete(drainTo(dst));
+            return p.future;
+        }
+        if (!waiter.compareAndSet(null, p)) {
+            throw new IllegalStateException("Async read already pending");
+        }
+        // 登记之前写线程可能已经发布了数据或关闭，再检查一次
+        completeWaiter();
+        return p.future;
+    }
+
+    // 不阻塞就能读取的字节数
+    public int available() throws IOException {
+        return (int)(tail - head);
+    }
+
+    // 关闭管道输入流，唤醒等待空间的写线程，让它发现管道已关闭
+    public void close() throws IOException {
+        closedByReader = true;
+        unparkWriter();
+        // 写线程正在完成的异步读(COMPLETING)让它正常完成
+        AsyncRead w = awaitCompletion();
+        if (w != null && waiter.compareAndSet(w, null)) {
+            w.future.completeExceptionally(new IOException("Pipe closed"));
+        }
+    }
+}